@@ -0,0 +1,112 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the client persistences on the QoS 1 publish path: each message is stored when sent and removed once
+ * acknowledged, with a window of messages in flight.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PersistenceBenchmark {
+    private static final int IN_FLIGHT = 16;
+
+    @Param({"MEMORY", "FILE", "MAPPED"})
+    public Persistence persistence;
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private Path directory;
+    private MqttClientPersistence client;
+    private MqttPersistable message;
+    private String[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("mqtt-persistence-benchmark");
+        client = persistence.v3(directory);
+        client.open("benchmark", "tcp://localhost:1883");
+
+        message = new Persistable(new byte[4], new byte[payloadSize]);
+
+        keys = new String[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "s-" + i;
+        }
+    }
+
+    @Benchmark
+    public void sendThenAcknowledge() throws Exception {
+        client.put(keys[next % keys.length], message);
+        client.remove(keys[(next - IN_FLIGHT + keys.length) % keys.length]);
+        next++;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    // left to the system temporary directory cleanup
+                }
+            });
+        }
+    }
+
+    private record Persistable(byte[] header, byte[] payload) implements MqttPersistable {
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
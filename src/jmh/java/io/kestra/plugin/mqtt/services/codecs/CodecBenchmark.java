@@ -0,0 +1,73 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encodes and decodes a small telemetry document with each built-in codec, as done once per message published
+ * or received.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+    private static final String AVRO_SCHEMA = """
+        {"type": "record", "name": "Telemetry", "fields": [
+          {"name": "device", "type": "string"},
+          {"name": "timestamp", "type": "long"},
+          {"name": "temperature", "type": "double"},
+          {"name": "humidity", "type": "int"},
+          {"name": "tags", "type": {"type": "array", "items": "string"}}
+        ]}""";
+
+    @Param({"JSON", "STRING", "BYTES", "CBOR", "MESSAGEPACK", "AVRO"})
+    public String codecName;
+
+    private PayloadCodec codec;
+    private Object value;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        codec = PayloadCodecs.create(codecName, null, codecName.equals("AVRO") ? Map.of("schema", AVRO_SCHEMA) : Map.of());
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("device", "sensor-42");
+        document.put("timestamp", 1_700_000_000_000L);
+        document.put("temperature", 21.5);
+        document.put("humidity", 48);
+        document.put("tags", List.of("indoor", "floor-2"));
+
+        byte[] json = PayloadCodecs.create("JSON", null, Map.of()).encode(document);
+
+        value = switch (codecName) {
+            case "STRING" -> new String(json, StandardCharsets.UTF_8);
+            case "BYTES" -> json;
+            default -> document;
+        };
+        payload = codec.encode(value);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return codec.decode(payload);
+    }
+}
@@ -4,6 +4,7 @@ import java.time.Duration;
 
 import io.kestra.core.models.property.Property;
 import io.kestra.core.models.tasks.Task;
+import io.kestra.plugin.mqtt.services.Persistence;
 
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
@@ -35,6 +36,11 @@ public abstract class AbstractMqttConnection extends Task implements MqttConnect
 
     private Property<String> crt;
 
+    @Builder.Default
+    private Property<Persistence> persistence = Property.ofValue(Persistence.MEMORY);
+
+    private Property<String> persistenceDirectory;
+
     public enum Version {
         V3,
         V5
@@ -10,15 +10,54 @@ import io.kestra.core.models.annotations.PluginProperty;
 public interface ConsumeInterface {
     @Schema(
         title = "The max number of rows to fetch before stopping",
-        description = "It's not an hard limit and is evaluated every second"
+        description = "The subscription ends as soon as it is reached; messages received in the meantime are dropped, or left unacknowledged for the next poll with `persistentSession`."
     )
     @PluginProperty(group = "execution")
     Property<Integer> getMaxRecords();
 
     @Schema(
         title = "The max duration waiting for new rows",
-        description = "It's not an hard limit and is evaluated every second"
+        description = "The subscription ends as soon as it has lasted for this duration."
     )
     @PluginProperty(group = "execution")
     Property<Duration> getMaxDuration();
+
+    @Schema(
+        title = "The max duration without any new row before stopping",
+        description = "Ends the subscription early when the topics go quiet, counting from the subscription start until the first row."
+    )
+    @PluginProperty(group = "execution")
+    Property<Duration> getMaxIdle();
+
+    @Schema(
+        title = "Keep the MQTT session on the broker between runs",
+        description = """
+            Connects without a clean session (clean start on MQTT 5), so the broker keeps the subscriptions and \
+            queues QoS 1 and 2 messages published while disconnected; each run then drains that backlog, and the \
+            SUBSCRIBE round trip is skipped while the session is still present. Messages are only acknowledged once \
+            buffered, so the ones left over when a run ends are delivered again on the next one. Requires a stable \
+            `clientId`. The subscriptions kept by the session are the ones of the run that created it: change \
+            `clientId` along with `topic` or `qos`."""
+    )
+    @PluginProperty(group = "connection")
+    Property<Boolean> getPersistentSession();
+
+    @Schema(
+        title = "How long the broker keeps a persistent session once disconnected",
+        description = "MQTT 5 only, the broker configuration decides on MQTT 3.1.1. Defaults to one day."
+    )
+    @PluginProperty(group = "connection")
+    Property<Duration> getSessionExpiry();
+
+    @Schema(
+        title = "Only keep the latest message of each topic",
+        description = """
+            For topics where only the current state matters, such as sensors publishing their readings several \
+            times a second: each message replaces the previous one of its topic, and the output holds one row per \
+            topic once the subscription ends. `messagesCount` is then the number of topics, and the messages \
+            replaced along the way are counted in `supersededCount`. `maxRecords` still counts every message \
+            received."""
+    )
+    @PluginProperty(group = "execution")
+    Property<Boolean> getConflate();
 }
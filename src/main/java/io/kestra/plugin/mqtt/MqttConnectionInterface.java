@@ -3,6 +3,7 @@ package io.kestra.plugin.mqtt;
 import java.time.Duration;
 
 import io.kestra.core.models.property.Property;
+import io.kestra.plugin.mqtt.services.Persistence;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
@@ -93,4 +94,22 @@ public interface MqttConnectionInterface {
     )
     @PluginProperty(group = "advanced")
     Property<String> getCrt();
+
+    @Schema(
+        title = "Where the client keeps the state of its QoS 1 and 2 messages in flight",
+        description = """
+            `MEMORY` loses it with the worker. `FILE` is Paho's file persistence, which writes one file per message. \
+            `MAPPED` appends it to memory-mapped segment files, compacted as messages complete, so it survives a \
+            worker restart at close to the speed of `MEMORY`. The state is only resumed by a connection without a \
+            clean session, see `persistentSession`."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<Persistence> getPersistence();
+
+    @Schema(
+        title = "The directory `FILE` and `MAPPED` persistence write to",
+        description = "Each client gets its own subdirectory. Point it to a volume kept across worker restarts; defaults to a `kestra-mqtt` directory in the system temporary directory."
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getPersistenceDirectory();
 }
@@ -1,6 +1,9 @@
 package io.kestra.plugin.mqtt;
 
+import java.util.Map;
+
 import io.kestra.core.models.property.Property;
+import io.kestra.plugin.mqtt.services.Compression;
 import io.kestra.plugin.mqtt.services.SerdeType;
 
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -15,6 +18,39 @@ public interface MqttPropertiesInterface {
     @PluginProperty(group = "main")
     Property<SerdeType> getSerdeType();
 
+    @Schema(
+        title = "Codec used for the payload instead of `serdeType`",
+        description = """
+            The name of a payload codec, for formats `serdeType` doesn't cover. Codecs are discovered through the \
+            Java `ServiceLoader`, so a plugin on the class path can add its own by implementing \
+            `io.kestra.plugin.mqtt.services.codecs.PayloadCodecProvider`."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getCodec();
+
+    @Schema(
+        title = "Options of the payload codec",
+        description = """
+            e.g. `charset` for `STRING` payloads, UTF-8 by default. `AVRO` and `PROTOBUF` read their schema once per \
+            task from `schema` (inline), `schemaUri` (a `kestra://` internal storage URI) or `schemaFile` (a namespace \
+            file path): an Avro schema, or a descriptor set written by `protoc --include_imports --descriptor_set_out` \
+            along with the `messageType` to use."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<Map<String, Object>> getCodecOptions();
+
+    @Schema(
+        title = "Compression of the payload",
+        description = """
+            Published payloads are compressed after being serialized. On MQTT 5 they are marked with a \
+            `content-encoding` user property, and subscribers decompress marked payloads whatever they are set to; \
+            this setting applies to unmarked payloads, such as all the ones of MQTT 3.1.1, which then has to be set \
+            the same on both sides. `LZ4` payloads are an LZ4 block prefixed by its uncompressed length as a 4 bytes \
+            little-endian integer."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<Compression> getCompression();
+
     @Schema(
         title = "Sets the quality of service for this message",
         description = "* **Quality of Service 0**: indicates that a message should be delivered at most once " +
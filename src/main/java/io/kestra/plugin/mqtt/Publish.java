@@ -1,13 +1,9 @@
 package io.kestra.plugin.mqtt;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
-import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Metric;
 import io.kestra.core.models.annotations.Plugin;
@@ -17,17 +13,21 @@ import io.kestra.core.models.property.Data;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.models.tasks.RunnableTask;
 import io.kestra.core.runners.RunContext;
-import io.kestra.core.serializers.JacksonMapper;
+import io.kestra.plugin.mqtt.services.Compression;
+import io.kestra.plugin.mqtt.services.ConnectOptions;
 import io.kestra.plugin.mqtt.services.MqttFactory;
 import io.kestra.plugin.mqtt.services.MqttInterface;
+import io.kestra.plugin.mqtt.services.PublishPlan;
 import io.kestra.plugin.mqtt.services.SerdeType;
+import io.kestra.plugin.mqtt.services.TopicTemplate;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
-import static io.kestra.core.utils.Rethrow.throwConsumer;
 import static io.kestra.core.utils.Rethrow.throwFunction;
 import io.kestra.core.models.annotations.PluginProperty;
 
@@ -38,12 +38,15 @@ import io.kestra.core.models.annotations.PluginProperty;
 @EqualsAndHashCode
 @Schema(
     title = "Publish messages to MQTT topics",
-    description = "Publishes data from `from` to a single MQTT topic using the chosen serializer (e.g., JSON or STRING) and QoS (default 1). `retain` defaults to false; send an empty payload with `retain: true` to clear retained state on the broker."
+    description = "Publishes data from `from` to an MQTT topic, or to a topic per row with `${field}` placeholders, using the chosen serializer (e.g., JSON or STRING) and QoS (default 1). `retain` defaults to false; send an empty payload with `retain: true` to clear retained state on the broker."
 )
 @Plugin(
     metrics = {
         @Metric(name = "records", type = Counter.TYPE),
-        @Metric(name = "duration", type = Timer.TYPE)
+        @Metric(name = "duration", type = Timer.TYPE),
+        @Metric(name = "pool.hits", type = Counter.TYPE),
+        @Metric(name = "pool.misses", type = Counter.TYPE),
+        @Metric(name = "connect", type = Timer.TYPE)
     },
     examples = {
         @Example(
@@ -89,6 +92,29 @@ import io.kestra.core.models.annotations.PluginProperty;
                       value: 1.23
                 """
         ),
+        @Example(
+            title = "Publish the state of each device to a topic of its own, over a single connection",
+            full = true,
+            code = """
+                id: mqtt_publish_routed
+                namespace: company.team
+
+                inputs:
+                  - id: states
+                    type: FILE
+
+                tasks:
+                  - id: publish
+                    type: io.kestra.plugin.mqtt.Publish
+                    server: tcp://localhost:1883
+                    clientId: kestraProducer
+                    topic: "devices/${deviceId}/state"
+                    retainField: retain
+                    serdeType: JSON
+                    maxInFlight: 100
+                    from: "{{ inputs.states }}"
+                """
+        ),
         @Example(
             title = "Send an MQTT 5 request, asking for the reply on a topic of its own",
             full = true,
@@ -141,7 +167,11 @@ public class Publish extends AbstractMqttConnection
     implements RunnableTask<Publish.Output>, MqttPropertiesInterface, Data.From {
 
     @Schema(
-        title = "Topic to publish to"
+        title = "Topic to publish to",
+        description = """
+            The topic can route each row to a topic of its own with `${field}` placeholders, resolved against the \
+            fields of the row, e.g. `devices/${device.id}/state`; a placeholder is a dotted path into nested \
+            objects. Placeholders are resolved after the usual rendering, so they can be combined with expressions."""
     )
     @NotNull
     @PluginProperty(group = "main")
@@ -189,65 +219,183 @@ public class Publish extends AbstractMqttConnection
     @PluginProperty(group = "main")
     private Property<SerdeType> serdeType;
 
+    @PluginProperty(group = "advanced")
+    private Property<String> codec;
+
+    @PluginProperty(group = "advanced")
+    private Property<Map<String, Object>> codecOptions;
+
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<Compression> compression = Property.ofValue(Compression.NONE);
+
     @Builder.Default
     @PluginProperty(group = "advanced")
     private Property<Integer> qos = Property.ofValue(1);
 
+    @Schema(
+        title = "Row field holding the QoS of the message",
+        description = "A dotted path into the row; rows without the field are published with `qos`."
+    )
+    @PluginProperty(group = "advanced")
+    private Property<String> qosField;
+
+    @Schema(
+        title = "Row field holding the retain flag of the message",
+        description = "A dotted path into the row; rows without the field are published with `retain`."
+    )
+    @PluginProperty(group = "advanced")
+    private Property<String> retainField;
+
+    @Schema(
+        title = "Row field holding the MQTT 5 response topic of the message",
+        description = "A dotted path into the row; rows without the field are published with `responseTopic`. Ignored for MQTT 3.1.1."
+    )
+    @PluginProperty(group = "advanced")
+    private Property<String> responseTopicField;
+
+    @Schema(
+        title = "Row field holding the Base64-encoded MQTT 5 correlation data of the message",
+        description = "A dotted path into the row; rows without the field are published with `correlationData`. Ignored for MQTT 3.1.1."
+    )
+    @PluginProperty(group = "advanced")
+    private Property<String> correlationDataField;
+
+    @Schema(
+        title = "The maximum number of messages awaiting their acknowledgement",
+        description = """
+            With the default of 1, each message waits for the broker acknowledgement before the next one is sent, \
+            capping QoS 1 and 2 throughput to one message per round trip. A larger value keeps up to that many \
+            messages in flight and only waits when the window is full and at the end of the run; failures are \
+            collected from the delivery acknowledgements and fail the task. On MQTT 5, the window is further bounded \
+            by the receive maximum announced by the broker."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<Integer> maxInFlight = Property.ofValue(1);
+
+    @Schema(
+        title = "The number of connections to publish over",
+        description = """
+            A single connection writes all messages through one socket and one client thread. With more than one, \
+            the connections are opened with the index appended to `clientId`, and rows are spread across them by \
+            `shardField`, or by topic when it isn't set, so messages sharing a key keep their order while \
+            serialization and writes scale across cores and broker listener threads."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<Integer> connections = Property.ofValue(1);
+
+    @Schema(
+        title = "Row field spreading rows across `connections`",
+        description = "A dotted path into the row; rows sharing a value are published in order over the same connection. Defaults to the topic of the row."
+    )
+    @PluginProperty(group = "execution")
+    private Property<String> shardField;
+
+    @Schema(
+        title = "Reuse the connection across runs",
+        description = """
+            When enabled, the connection is taken from a pool shared by all tasks running on the worker, instead of \
+            being opened and closed by each run, saving the TCP and TLS handshakes and the MQTT CONNECT of tasks \
+            running every few seconds. Tasks with the same connection properties, including `clientId`, share the \
+            same connection. A pooled connection is checked before being reused, and closed once unused for \
+            `poolIdleTimeout`."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "connection")
+    private Property<Boolean> pooled = Property.ofValue(false);
+
+    @Schema(
+        title = "How long a pooled connection is kept open once unused",
+        description = "Only used when `pooled` is enabled."
+    )
+    @Builder.Default
+    @PluginProperty(group = "connection")
+    private Property<Duration> poolIdleTimeout = Property.ofValue(Duration.ofMinutes(5));
+
     @Override
     public Publish.Output run(RunContext runContext) throws Exception {
         long startTime = System.nanoTime();
 
-        MqttInterface connection = MqttFactory.create(runContext, this);
+        var options = ConnectOptions.builder()
+            .maxInFlight(runContext.render(this.maxInFlight).as(Integer.class).orElse(1))
+            .build();
 
-        String rTopic = runContext.render(this.topic).as(String.class).orElseThrow();
+        PublishPlan plan = PublishPlan.of(runContext, this);
 
-        int count;
-        SerdeType rSerdeType = runContext.render(this.serdeType).as(SerdeType.class).orElseThrow();
+        int rConnections = runContext.render(this.connections).as(Integer.class).orElse(1);
+        String[] rShardField = runContext.render(this.shardField).as(String.class).map(path -> path.split("\\.")).orElse(null);
+
+        Duration rPoolIdleTimeout = runContext.render(this.pooled).as(Boolean.class).orElse(false) ?
+            runContext.render(this.poolIdleTimeout).as(Duration.class).orElseThrow() :
+            null;
+
+        List<MqttInterface> shards = MqttFactory.create(runContext, this, options, rConnections, rPoolIdleTimeout);
+
+        Flux<Object> rows;
+        if (plan.getSerdeType() == SerdeType.STRING) {
+            Iterable<?> iterable = (from instanceof Iterable<?> values) ? values : List.of(from);
+
+            rows = Flux.fromIterable(iterable).map(throwFunction(row -> runContext.render(row.toString()))).cast(Object.class);
+        } else {
+            rows = Data.from(from).read(runContext).cast(Object.class);
+        }
 
-        if (rSerdeType == SerdeType.STRING) {
-            Iterable<?> rows = (from instanceof Iterable<?> iterable) ? iterable : List.of(from);
+        Flux<Integer> published;
+        if (shards.size() == 1) {
+            MqttInterface connection = shards.getFirst();
 
-            rows.forEach(throwConsumer(row ->
+            published = rows.map(throwFunction(row ->
             {
-                String value = runContext.render(row.toString());
-                connection.publish(
-                    runContext,
-                    this,
-                    value.getBytes(StandardCharsets.UTF_8)
-                );
+                connection.publish(plan.route(row), plan.serialize(row));
+                return 1;
             }));
-
-            count = (rows instanceof Collection<?> c) ? c.size() : 1;
         } else {
-            count = Data.from(from).read(runContext)
-                .map(throwFunction(row ->
-                {
-                    connection.publish(runContext, this, this.serialize(row, runContext));
-                    return 1;
-                }))
+            // a shard keeps its rows in order on its own connection, serializing them on a thread of its own
+            published = rows
+                .map(row -> new Routed(row, plan.route(row)))
+                .groupBy(routed -> routed.shard(rShardField, shards.size()))
+                .flatMap(
+                    shard -> shard
+                        .publishOn(Schedulers.boundedElastic())
+                        .map(throwFunction(routed ->
+                        {
+                            shards.get(shard.key()).publish(routed.plan(), plan.serialize(routed.row()));
+                            return 1;
+                        })),
+                    shards.size()
+                );
+        }
+
+        int count;
+        try {
+            count = published
                 .reduce(Integer::sum)
                 .blockOptional().orElse(0);
 
+            for (MqttInterface shard : shards) {
+                shard.flush();
+            }
+        } finally {
+            for (MqttInterface shard : shards) {
+                shard.close();
+            }
         }
 
-        runContext.metric(Counter.of("records", count, "topic", rTopic));
+        runContext.metric(Counter.of("records", count, "topic", plan.getTopic()));
         runContext.metric(Timer.of("duration", Duration.ofNanos(System.nanoTime() - startTime)));
 
-        connection.close();
-
         return Output.builder()
             .messagesCount(count)
             .build();
     }
 
-    private byte[] serialize(Object row, RunContext runContext)
-        throws JsonProcessingException, IllegalVariableEvaluationException {
-        if (runContext.render(this.serdeType).as(SerdeType.class).orElseThrow() == SerdeType.JSON) {
-            return JacksonMapper.ofJson().writeValueAsBytes(row);
-        } else if (runContext.render(this.serdeType).as(SerdeType.class).orElseThrow() == SerdeType.STRING) {
-            return ((String) row).getBytes(StandardCharsets.UTF_8);
-        } else {
-            throw new IllegalArgumentException("Unexpetected serdeType '" + this.serdeType + "'");
+    private record Routed(Object row, PublishPlan plan) {
+        int shard(String[] shardField, int count) {
+            Object key = TopicTemplate.field(row, shardField);
+
+            return Math.floorMod((key == null ? plan.getTopic() : key).hashCode(), count);
         }
     }
 
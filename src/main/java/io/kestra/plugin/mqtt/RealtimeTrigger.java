@@ -1,24 +1,42 @@
 package io.kestra.plugin.mqtt;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.reactivestreams.Publisher;
 
 import io.kestra.core.models.annotations.Example;
+import io.kestra.core.models.annotations.Metric;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.conditions.ConditionContext;
 import io.kestra.core.models.executions.Execution;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.models.executions.metrics.Timer;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.models.triggers.*;
 import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.FileSerde;
+import io.kestra.plugin.mqtt.services.Batcher;
+import io.kestra.plugin.mqtt.services.Compression;
+import io.kestra.plugin.mqtt.services.ConnectOptions;
 import io.kestra.plugin.mqtt.services.Message;
 import io.kestra.plugin.mqtt.services.MqttFactory;
 import io.kestra.plugin.mqtt.services.MqttInterface;
+import io.kestra.plugin.mqtt.services.OverflowStrategy;
+import io.kestra.plugin.mqtt.services.ReconnectPolicy;
 import io.kestra.plugin.mqtt.services.SerdeType;
+import io.kestra.plugin.mqtt.services.SubscribePlan;
 
 import io.kestra.core.models.annotations.PluginProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -26,6 +44,10 @@ import jakarta.validation.constraints.NotNull;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import static io.kestra.core.utils.Rethrow.throwConsumer;
+import static io.kestra.core.utils.Rethrow.throwFunction;
 
 @SuperBuilder
 @ToString
@@ -37,6 +59,13 @@ import reactor.core.publisher.Flux;
     description = "Subscribes to MQTT topics and starts one execution immediately for each incoming message. Defaults to JSON payloads with QoS 1 and keeps consuming until stopped or disconnected; use [Trigger](https://kestra.io/plugins/plugin-mqtt/triggers/io.kestra.plugin.mqtt.trigger) for scheduled batch pulls instead."
 )
 @Plugin(
+    metrics = {
+        @Metric(name = "dropped", type = Counter.TYPE),
+        @Metric(name = "reconnects", type = Counter.TYPE),
+        @Metric(name = "downtime", type = Timer.TYPE),
+        @Metric(name = "dedup.hits", type = Counter.TYPE),
+        @Metric(name = "dedup.misses", type = Counter.TYPE)
+    },
     examples = {
         @Example(
             title = "Consume a message from MQTT topics in real-time.",
@@ -60,6 +89,29 @@ import reactor.core.publisher.Flux;
                       - kestra/sensors/cpu
                       - kestra/sensors/mem
                     serdeType: JSON"""
+        ),
+        @Example(
+            title = "Start one execution per batch of up to 500 messages, waiting at most 2 seconds for a batch to fill.",
+            full = true,
+            code = """
+                id: mqtt_realtime_trigger_batch
+                namespace: company.team
+
+                tasks:
+                  - id: log
+                    type: io.kestra.plugin.core.log.Log
+                    message: "{{ trigger.messagesCount }} messages"
+
+                triggers:
+                  - id: realtime_trigger
+                    type: io.kestra.plugin.mqtt.RealtimeTrigger
+                    server: tcp://localhost:1883
+                    clientId: kestraTelemetry
+                    topic: kestra/sensors/#
+                    batchSize: 500
+                    batchMaxWait: PT2S
+                    batchAdaptiveWait: true
+                    batchStorageThreshold: 100"""
         )
     }
 )
@@ -94,15 +146,119 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
 
     private Object topic;
 
+    private Property<String> shareGroup;
+
     @Schema(title = "CA certificate for TLS connections")
     private Property<String> crt;
 
     @Builder.Default
     private Property<SerdeType> serdeType = Property.ofValue(SerdeType.JSON);
 
+    private Property<String> codec;
+
+    private Property<Map<String, Object>> codecOptions;
+
+    @Builder.Default
+    private Property<Compression> compression = Property.ofValue(Compression.NONE);
+
+    private Property<Map<String, SerdeType>> serdeTypes;
+
+    private Property<String> filterTopic;
+
+    private Property<Map<String, String>> filterUserProperties;
+
+    private Property<String> filterJsonPointer;
+
+    private Property<String> filterJsonValue;
+
+    private Property<Duration> deduplicationWindow;
+
+    private Property<Integer> deduplicationSize;
+
+    private Property<String> deduplicationUserProperty;
+
     @Builder.Default
     private Property<Integer> qos = Property.ofValue(1);
 
+    @Schema(
+        title = "Group messages into batches of at most this size, starting one execution per batch",
+        description = "The trigger output is then the batch: `messagesCount`, and `messages` or `uri`. Without it, one execution is started per message."
+    )
+    @PluginProperty(group = "execution")
+    private Property<Integer> batchSize;
+
+    @Schema(
+        title = "How long the first message of a batch waits for the batch to fill",
+        description = "Only used with `batchSize`."
+    )
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<Duration> batchMaxWait = Property.ofValue(Duration.ofSeconds(1));
+
+    @Schema(
+        title = "Shrink the batch wait when traffic is light",
+        description = """
+            The wait is scaled down by how much longer than `batchMaxWait` a batch is expected to take to fill at the \
+            current message rate, so messages aren't held back waiting for a batch that won't fill, and latency stays \
+            low at low rates. Only used with `batchSize`."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<Boolean> batchAdaptiveWait = Property.ofValue(false);
+
+    @Schema(
+        title = "Write batches of more than this number of messages to internal storage",
+        description = "Such a batch is passed as a `uri` to an ION file rather than as `messages` in the execution. Only used with `batchSize`."
+    )
+    @PluginProperty(group = "execution")
+    private Property<Integer> batchStorageThreshold;
+
+    @Schema(
+        title = "The number of received messages buffered ahead of execution creation",
+        description = """
+            Messages are only acknowledged to the broker once taken from the buffer, and on MQTT 5 the buffer size \
+            is also sent as the receive maximum, so the broker itself stops sending QoS 1 and 2 messages while the \
+            buffer is full instead of them piling up in the worker."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<Integer> bufferSize = Property.ofValue(1024);
+
+    @Schema(
+        title = "What to do with a received message when the buffer is full",
+        description = """
+            `BLOCK` stops receiving until there is room, `DROP_OLDEST` and `DROP_LATEST` drop a message, counted in \
+            the `dropped` metric, and `ERROR` fails the trigger. The buffer can only overflow with QoS 0 messages, \
+            or on MQTT 3.1.1 which has no receive maximum."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<OverflowStrategy> overflowStrategy = Property.ofValue(OverflowStrategy.BLOCK);
+
+    @Schema(
+        title = "Reconnect and resubscribe in place when the connection is lost",
+        description = """
+            Reconnection attempts wait an exponentially growing delay, from 1 second up to `reconnectMaxDelay`, \
+            with jitter so that triggers dropped together by a broker restart don't reconnect all at once. The \
+            trigger is only restarted once `reconnectMaxAttempts` fail. Reconnections are counted in the \
+            `reconnects` metric, and the time spent disconnected in the `downtime` one."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "connection")
+    private Property<Boolean> autoReconnect = Property.ofValue(true);
+
+    @Schema(title = "The maximum delay between two reconnection attempts")
+    @Builder.Default
+    @PluginProperty(group = "connection")
+    private Property<Duration> reconnectMaxDelay = Property.ofValue(Duration.ofMinutes(1));
+
+    @Schema(
+        title = "The number of reconnection attempts before the trigger is restarted",
+        description = "Retries until the trigger is stopped when not set."
+    )
+    @PluginProperty(group = "connection")
+    private Property<Integer> reconnectMaxAttempts;
+
     @Builder.Default
     @Getter(AccessLevel.NONE)
     private final AtomicBoolean isActive = new AtomicBoolean(true);
@@ -111,9 +267,39 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
     @Getter(AccessLevel.NONE)
     private final CountDownLatch waitForTermination = new CountDownLatch(1);
 
+    @Builder.Default
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<FluxSink<Message>> emitter = new AtomicReference<>();
+
     @Override
     public Publisher<Execution> evaluate(ConditionContext conditionContext, TriggerContext context) throws Exception {
-        Subscribe task = Subscribe.builder()
+        Subscribe task = this.subscribeTask();
+        RunContext runContext = conditionContext.getRunContext();
+        Flux<Message> messages = Flux.from(publisher(task, runContext));
+
+        Integer rBatchSize = runContext.render(this.batchSize).as(Integer.class).orElse(null);
+        if (rBatchSize == null) {
+            return messages
+                .map(record -> TriggerService.generateRealtimeExecution(this, conditionContext, context, new Output(record)));
+        }
+
+        Integer rStorageThreshold = runContext.render(this.batchStorageThreshold).as(Integer.class).orElse(null);
+
+        return Batcher
+            .batch(
+                messages,
+                rBatchSize,
+                runContext.render(this.batchMaxWait).as(Duration.class).orElseThrow(),
+                runContext.render(this.batchAdaptiveWait).as(Boolean.class).orElse(false)
+            )
+            .map(throwFunction(batch -> TriggerService.generateRealtimeExecution(this, conditionContext, context, this.batchOutput(runContext, batch, rStorageThreshold))));
+    }
+
+    /**
+     * The subscription this trigger runs, made of its own connection and subscription properties.
+     */
+    Subscribe subscribeTask() {
+        return Subscribe.builder()
             .id(this.id)
             .type(Subscribe.class.getName())
             .mqttVersion(this.mqttVersion)
@@ -127,36 +313,98 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
             .crt(this.crt)
             .mqttVersion(this.mqttVersion)
             .topic(this.topic)
+            .shareGroup(this.shareGroup)
             .serdeType(this.serdeType)
+            .codec(this.codec)
+            .codecOptions(this.codecOptions)
+            .compression(this.compression)
+            .serdeTypes(this.serdeTypes)
+            .filterTopic(this.filterTopic)
+            .filterUserProperties(this.filterUserProperties)
+            .filterJsonPointer(this.filterJsonPointer)
+            .filterJsonValue(this.filterJsonValue)
+            .deduplicationWindow(this.deduplicationWindow)
+            .deduplicationSize(this.deduplicationSize)
+            .deduplicationUserProperty(this.deduplicationUserProperty)
             .qos(this.qos)
             .build();
+    }
+
+    private BatchOutput batchOutput(RunContext runContext, List<Message> batch, Integer storageThreshold) throws Exception {
+        if (storageThreshold == null || batch.size() <= storageThreshold) {
+            return new BatchOutput(batch.size(), batch.stream().map(Output::new).toList(), null);
+        }
+
+        File tempFile = runContext.workingDir().createTempFile(".ion").toFile();
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile), FileSerde.BUFFER_SIZE)) {
+            for (Message message : batch) {
+                FileSerde.write(output, message);
+            }
+        }
 
-        return Flux
-            .from(publisher(task, conditionContext.getRunContext()))
-            .map(record -> TriggerService.generateRealtimeExecution(this, conditionContext, context, new Output(record)));
+        URI uri = runContext.storage().putFile(tempFile);
+        Files.deleteIfExists(tempFile.toPath());
+
+        return new BatchOutput(batch.size(), null, uri);
     }
 
     public Publisher<Message> publisher(final Subscribe task, final RunContext runContext) throws Exception {
-        final MqttInterface connection = MqttFactory.create(runContext, task);
+        final int rBufferSize = runContext.render(this.bufferSize).as(Integer.class).orElseThrow();
+        final OverflowStrategy rOverflowStrategy = runContext.render(this.overflowStrategy).as(OverflowStrategy.class).orElseThrow();
+
+        final SubscribePlan plan = SubscribePlan.of(runContext, task);
+        final MqttInterface connection = MqttFactory.create(runContext, task, ConnectOptions.builder()
+            .receiveMaximum(Math.min(rBufferSize, ConnectOptions.MAX_RECEIVE_MAXIMUM))
+            .manualAcks(true)
+            .reconnect(this.reconnectPolicy(runContext))
+            .clientIdSuffix(plan.getShareGroup() != null ? ConnectOptions.instanceSuffix() : null)
+            .build()
+        );
+
+        return this.publisher(runContext, plan, connection, rBufferSize, rOverflowStrategy);
+    }
 
-        return Flux.create(emitter ->
+    /**
+     * Streams the messages of an open connection through the buffer, and closes the connection once the stream
+     * is disposed of.
+     */
+    Flux<Message> publisher(RunContext runContext, SubscribePlan plan, MqttInterface connection, int rBufferSize, OverflowStrategy rOverflowStrategy) {
+        // bounds a blocking buffer: taken by the client callback thread, given back as messages are taken downstream
+        final Semaphore slots = new Semaphore(rBufferSize);
+
+        Flux<Message> messages = Flux.create(emitter ->
         {
             try {
-
-                final AtomicReference<Throwable> error = new AtomicReference<>();
-
                 // The MQTT client is automatically shutdown if an exception is thrown in the client
                 // e.g., while processing a message
                 connection.onDisconnected(throwable ->
                 {
-                    error.set(throwable);
-                    isActive.set(false); // proactively stop consuming
+                    isActive.set(false);
+
+                    if (throwable != null) {
+                        emitter.error(throwable);
+                    } else {
+                        emitter.complete();
+                    }
                 });
 
                 emitter.onDispose(() ->
                 {
+                    // unblocks the client callback thread if it waits for a slot
+                    slots.release(rBufferSize);
+
+                    if (plan.getDeduplicator() != null) {
+                        plan.getDeduplicator().report(runContext);
+                    }
+
+                    try {
+                        connection.unsubscribe(runContext, plan);
+                    } catch (Exception e) {
+                        // e.g. while reconnecting, the connection must be closed all the same
+                        runContext.logger().debug("Error while unsubscribing: " + e.getMessage());
+                    }
+
                     try {
-                        connection.unsubscribe(runContext, task);
                         connection.close();
                     } catch (Exception e) {
                         runContext.logger().debug("Error while closing connection: " + e.getMessage());
@@ -165,31 +413,70 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
                     }
                 });
 
-                connection.subscribe(runContext, task, emitter::next);
+                connection.subscribe(runContext, plan, throwConsumer(message ->
+                {
+                    if (rOverflowStrategy == OverflowStrategy.BLOCK) {
+                        slots.acquire();
+                        if (emitter.isCancelled()) {
+                            return;
+                        }
+                    }
 
-                busyWait();
+                    emitter.next(message);
+                }));
 
-                // dispose
-                if (error.get() != null) {
-                    emitter.error(error.get());
-                } else {
+                // completed by stop(), unless it was called before the subscription
+                this.emitter.set(emitter);
+                if (!isActive.get()) {
                     emitter.complete();
                 }
             } catch (Exception e) {
                 isActive.set(false);
                 emitter.error(e);
             }
-        });
+        }, FluxSink.OverflowStrategy.BUFFER);
+
+        if (rOverflowStrategy == OverflowStrategy.BLOCK) {
+            return messages.doOnNext(message ->
+            {
+                slots.release();
+                acknowledge(runContext, connection, message);
+            });
+        }
+
+        return messages
+            .onBackpressureBuffer(
+                rBufferSize,
+                dropped ->
+                {
+                    runContext.metric(Counter.of("dropped", 1));
+                    acknowledge(runContext, connection, dropped);
+                },
+                rOverflowStrategy.bufferOverflowStrategy()
+            )
+            .doOnNext(message -> acknowledge(runContext, connection, message));
     }
 
-    private void busyWait() {
-        while (isActive.get()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                isActive.set(false); // proactively stop consuming
-            }
+    private ReconnectPolicy reconnectPolicy(RunContext runContext) throws Exception {
+        if (!runContext.render(this.autoReconnect).as(Boolean.class).orElse(true)) {
+            return null;
+        }
+
+        return ReconnectPolicy.builder()
+            .maxDelay(runContext.render(this.reconnectMaxDelay).as(Duration.class).orElseThrow())
+            .maxAttempts(runContext.render(this.reconnectMaxAttempts).as(Integer.class).orElse(null))
+            .build();
+    }
+
+    /**
+     * A message is acknowledged once taken from the buffer, so the broker only has as many unacknowledged
+     * messages in flight as the buffer holds, and stops sending at the receive maximum.
+     */
+    private static void acknowledge(RunContext runContext, MqttInterface connection, Message message) {
+        try {
+            connection.acknowledge(message);
+        } catch (Exception e) {
+            runContext.logger().debug("Error while acknowledging message {id: {}}: {}", message.getId(), e.getMessage());
         }
     }
 
@@ -213,6 +500,13 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
         if (!isActive.compareAndSet(true, false)) {
             return;
         }
+
+        // completing the emitter disposes of the subscription, closing the connection
+        FluxSink<Message> current = this.emitter.get();
+        if (current != null) {
+            current.complete();
+        }
+
         if (wait) {
             try {
                 this.waitForTermination.await();
@@ -222,6 +516,19 @@ public class RealtimeTrigger extends AbstractTrigger implements RealtimeTriggerI
         }
     }
 
+    @Getter
+    @AllArgsConstructor
+    public class BatchOutput implements io.kestra.core.models.tasks.Output {
+        @Schema(title = "Number of messages in the batch")
+        private Integer messagesCount;
+
+        @Schema(title = "The messages of the batch", description = "Null when the batch was written to `uri`.")
+        private List<Output> messages;
+
+        @Schema(title = "URI of the internal storage file holding the messages of the batch", description = "Only set for batches of more than `batchStorageThreshold` messages.")
+        private URI uri;
+    }
+
     @Getter
     @AllArgsConstructor
     public class Output implements io.kestra.core.models.tasks.Output {
@@ -3,13 +3,19 @@ package io.kestra.plugin.mqtt;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.time.Duration;
-import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import io.kestra.core.exceptions.IllegalVariableEvaluationException;
 import io.kestra.core.models.annotations.Example;
@@ -21,16 +27,24 @@ import io.kestra.core.models.property.Property;
 import io.kestra.core.models.tasks.RunnableTask;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.serializers.FileSerde;
+import io.kestra.plugin.mqtt.services.Compression;
+import io.kestra.plugin.mqtt.services.ConnectOptions;
+import io.kestra.plugin.mqtt.services.ConsumeLimits;
+import io.kestra.plugin.mqtt.services.Message;
+import io.kestra.plugin.mqtt.services.MessageBuffer;
 import io.kestra.plugin.mqtt.services.MqttFactory;
 import io.kestra.plugin.mqtt.services.MqttInterface;
+import io.kestra.plugin.mqtt.services.OutputFormat;
+import io.kestra.plugin.mqtt.services.RollingFileWriter;
 import io.kestra.plugin.mqtt.services.SerdeType;
+import io.kestra.plugin.mqtt.services.SubscribePlan;
+import io.kestra.plugin.mqtt.services.TopicAggregator;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 
 import static io.kestra.core.utils.Rethrow.throwConsumer;
-import static io.kestra.core.utils.Rethrow.throwRunnable;
 import io.kestra.core.models.annotations.PluginProperty;
 
 @SuperBuilder
@@ -40,12 +54,20 @@ import io.kestra.core.models.annotations.PluginProperty;
 @NoArgsConstructor
 @Schema(
     title = "Subscribe and buffer MQTT messages",
-    description = "Subscribes to one or more MQTT topics, writes received messages to internal storage, and returns the `uri` plus `messagesCount`. Stops when `maxRecords` or `maxDuration` is reached; defaults to JSON payloads with QoS 1."
+    description = "Subscribes to one or more MQTT topics, writes received messages to internal storage, and returns the `uri` plus `messagesCount`. Stops as soon as `maxRecords`, `maxDuration` or `maxIdle` is reached; defaults to JSON payloads with QoS 1."
 )
 @Plugin(
     metrics = {
         @Metric(name = "records", type = Counter.TYPE),
-        @Metric(name = "duration", type = Timer.TYPE)
+        @Metric(name = "duration", type = Timer.TYPE),
+        @Metric(name = "connect", type = Timer.TYPE),
+        @Metric(name = "buffer.peak", type = Counter.TYPE),
+        @Metric(name = "writer.lag", type = Timer.TYPE),
+        @Metric(name = "chunks", type = Counter.TYPE),
+        @Metric(name = "superseded", type = Counter.TYPE),
+        @Metric(name = "skipped", type = Counter.TYPE),
+        @Metric(name = "dedup.hits", type = Counter.TYPE),
+        @Metric(name = "dedup.misses", type = Counter.TYPE)
     },
     examples = {
         @Example(
@@ -89,17 +111,85 @@ import io.kestra.core.models.annotations.PluginProperty;
                     serdeType: JSON
                     maxRecords: 10
                 """
+        ),
+        @Example(
+            title = "Capture a topic for an hour, uploading a file every 10,000 messages or every minute",
+            full = true,
+            code = """
+                id: mqtt_subscribe_rolling
+                namespace: company.team
+
+                tasks:
+                  - id: subscribe
+                    type: io.kestra.plugin.mqtt.Subscribe
+                    server: tcp://localhost:1883
+                    clientId: kestraCapture
+                    topic: kestra/sensors/#
+                    maxDuration: PT1H
+                    chunkRecords: 10000
+                    chunkDuration: PT1M
+
+                  - id: process
+                    type: io.kestra.plugin.core.flow.ForEach
+                    values: "{{ outputs.subscribe.uris }}"
+                    concurrencyLimit: 4
+                    tasks:
+                      - id: log
+                        type: io.kestra.plugin.core.log.Log
+                        message: "{{ taskrun.value }}"
+                """
         )
     }
 )
 public class Subscribe extends AbstractMqttConnection implements RunnableTask<Subscribe.Output>, SubscribeInterface, ConsumeInterface, MqttPropertiesInterface {
+    private static final int WRITE_BATCH_SIZE = 256;
+
+    private static final Duration DEFAULT_SESSION_EXPIRY = Duration.ofDays(1);
+
     @PluginProperty(group = "main")
     private Object topic;
 
+    @PluginProperty(group = "main")
+    private Property<String> shareGroup;
+
     @Builder.Default
     @PluginProperty(group = "advanced")
     private Property<SerdeType> serdeType = Property.ofValue(SerdeType.JSON);
 
+    @PluginProperty(group = "advanced")
+    private Property<String> codec;
+
+    @PluginProperty(group = "advanced")
+    private Property<Map<String, Object>> codecOptions;
+
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<Compression> compression = Property.ofValue(Compression.NONE);
+
+    @PluginProperty(group = "advanced")
+    private Property<Map<String, SerdeType>> serdeTypes;
+
+    @PluginProperty(group = "advanced")
+    private Property<String> filterTopic;
+
+    @PluginProperty(group = "advanced")
+    private Property<Map<String, String>> filterUserProperties;
+
+    @PluginProperty(group = "advanced")
+    private Property<String> filterJsonPointer;
+
+    @PluginProperty(group = "advanced")
+    private Property<String> filterJsonValue;
+
+    @PluginProperty(group = "advanced")
+    private Property<Duration> deduplicationWindow;
+
+    @PluginProperty(group = "advanced")
+    private Property<Integer> deduplicationSize;
+
+    @PluginProperty(group = "advanced")
+    private Property<String> deduplicationUserProperty;
+
     @Builder.Default
     @PluginProperty(group = "advanced")
     private Property<Integer> qos = Property.ofValue(1);
@@ -110,57 +200,310 @@ public class Subscribe extends AbstractMqttConnection implements RunnableTask<Su
     @PluginProperty(group = "execution")
     private Property<Duration> maxDuration;
 
+    @PluginProperty(group = "execution")
+    private Property<Duration> maxIdle;
+
+    @Builder.Default
+    @PluginProperty(group = "connection")
+    private Property<Boolean> persistentSession = Property.ofValue(false);
+
+    @PluginProperty(group = "connection")
+    private Property<Duration> sessionExpiry;
+
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<Boolean> conflate = Property.ofValue(false);
+
+    @Schema(
+        title = "Aggregate this numeric field of the messages instead of writing them",
+        description = """
+            A JSON pointer to the field, e.g. `/temperature`, or an empty string for payloads that are a bare \
+            number. Rather than every message, the output holds one row per topic (and per `aggregateWindow`) with \
+            the `count`, `min`, `max`, `sum` and `avg` of the field and its `aggregatePercentiles`, estimated \
+            within 1% of their value. The field is read from the raw payload bytes and `serdeType` is ignored; \
+            messages without a number at the field are skipped, and counted in the `skipped` metric."""
+    )
+    @PluginProperty(group = "execution")
+    private Property<String> aggregateField;
+
+    @Schema(
+        title = "The duration of the tumbling windows the aggregates are computed over",
+        description = "Windows are aligned on the epoch and each row carries its `windowStart` and `windowEnd`. Without it, one row per topic covers the whole subscription."
+    )
+    @PluginProperty(group = "execution")
+    private Property<Duration> aggregateWindow;
+
+    @Schema(
+        title = "The percentiles of the aggregated field to compute, between 0 and 1",
+        description = "Output as `p50`, `p90`, `p99.9` and so on."
+    )
+    @Builder.Default
+    @PluginProperty(group = "execution")
+    private Property<List<Double>> aggregatePercentiles = Property.ofValue(TopicAggregator.DEFAULT_PERCENTILES);
+
+    @Schema(
+        title = "The number of received messages buffered ahead of the file writer",
+        description = """
+            Messages are handed from the MQTT client to a dedicated writer through a bounded buffer, so a slow disk \
+            doesn't stall message receipt and keepalives. When the buffer is full, the client stops acknowledging \
+            messages; on MQTT 5 the buffer size is also sent as the receive maximum, so the broker itself stops \
+            sending QoS 1 and 2 messages until the writer catches up."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<Integer> bufferSize = Property.ofValue(1024);
+
+    @Schema(
+        title = "Roll over to a new file once the current one reaches this size, in bytes",
+        description = "Setting any of `chunkSize`, `chunkRecords` or `chunkDuration` uploads each file as soon as it is complete and returns them all in `uris`."
+    )
+    @PluginProperty(group = "advanced")
+    private Property<Long> chunkSize;
+
+    @Schema(
+        title = "Roll over to a new file once the current one holds this many messages"
+    )
+    @PluginProperty(group = "advanced")
+    private Property<Integer> chunkRecords;
+
+    @Schema(
+        title = "Roll over to a new file once the current one has been open for this long"
+    )
+    @PluginProperty(group = "advanced")
+    private Property<Duration> chunkDuration;
+
+    @Schema(
+        title = "The format of the output files",
+        description = """
+            `ION` decodes each payload with `serdeType`. `NDJSON` and `BINARY` skip decoding and copy the payload \
+            bytes straight to storage, which costs far less CPU at high message rates; `serdeType` is then ignored.
+            - `NDJSON` writes one JSON object per line with `topic`, `qos`, `retain` and, when set, `responseTopic` \
+            and `correlationData`, followed by the payload as `payload`. Payloads must already be JSON.
+            - `BINARY` writes one record per message: a header byte holding the QoS in its two lowest bits, then \
+            flags for the retain flag (`0x04`), a response topic (`0x08`) and correlation data (`0x10`); the topic \
+            and the response topic as a 2 bytes length and their UTF-8 bytes; the correlation data as a 2 bytes \
+            length and its raw bytes; then the payload as a 4 bytes length and its bytes. Lengths are big-endian."""
+    )
+    @Builder.Default
+    @PluginProperty(group = "advanced")
+    private Property<OutputFormat> outputFormat = Property.ofValue(OutputFormat.ION);
+
     @Override
     public Output run(RunContext runContext) throws Exception {
         long startTime = System.nanoTime();
 
-        MqttInterface connection = MqttFactory.create(runContext, this);
+        ConsumeLimits limits = new ConsumeLimits(
+            runContext.render(this.maxRecords).as(Integer.class).orElse(null),
+            runContext.render(this.maxDuration).as(Duration.class).orElse(null),
+            runContext.render(this.maxIdle).as(Duration.class).orElse(null)
+        );
+        MessageBuffer buffer = new MessageBuffer(runContext.render(this.bufferSize).as(Integer.class).orElseThrow());
 
-        File tempFile = runContext.workingDir().createTempFile(".ion").toFile();
-        Thread thread = null;
+        boolean rPersistentSession = runContext.render(this.persistentSession).as(Boolean.class).orElse(false);
+        if (rPersistentSession && runContext.render(this.getClientId()).as(String.class).orElse(null) == null) {
+            throw new IllegalArgumentException("A persistent session requires a `clientId`, which identifies the session on the broker");
+        }
+
+        boolean rConflate = runContext.render(this.conflate).as(Boolean.class).orElse(false);
+        Map<String, Message> latest = new ConcurrentHashMap<>();
+        LongAdder superseded = new LongAdder();
+
+        TopicAggregator aggregator = this.aggregator(runContext);
+        if (aggregator != null && rConflate) {
+            throw new IllegalArgumentException("`aggregateField` and `conflate` cannot be combined");
+        }
+
+        OutputFormat rOutputFormat = runContext.render(this.outputFormat).as(OutputFormat.class).orElseThrow();
+        SubscribePlan plan = SubscribePlan.of(runContext, this).withRaw(rOutputFormat.isRaw() || aggregator != null);
+
+        // the client identifier of a shared subscription changes with the worker, so each restart would leave a session behind
+        if (rPersistentSession && plan.getShareGroup() != null) {
+            throw new IllegalArgumentException("`persistentSession` and `shareGroup` cannot be combined");
+        }
+
+        RollingFileWriter files = new RollingFileWriter(
+            runContext,
+            rOutputFormat,
+            runContext.render(this.chunkSize).as(Long.class).orElse(null),
+            runContext.render(this.chunkRecords).as(Integer.class).orElse(null),
+            runContext.render(this.chunkDuration).as(Duration.class).orElse(null)
+        );
+        Thread writer = null;
 
-        try (BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+        // the connection is a resource too, so it is closed whatever fails once it is open
+        try (files;
+             MqttInterface connection = MqttFactory.create(runContext, this, ConnectOptions.builder()
+                 .receiveMaximum(Math.min(buffer.capacity(), ConnectOptions.MAX_RECEIVE_MAXIMUM))
+                 .cleanStart(!rPersistentSession)
+                 .sessionExpiryInterval(rPersistentSession ? runContext.render(this.sessionExpiry).as(Duration.class).orElse(DEFAULT_SESSION_EXPIRY).toSeconds() : null)
+                 .manualAcks(rPersistentSession)
+                 .clientIdSuffix(plan.getShareGroup() != null ? ConnectOptions.instanceSuffix() : null)
+                 .build()
+             )
+        ) {
             Map<String, Integer> count = new HashMap<>();
-            AtomicInteger total = new AtomicInteger();
-            ZonedDateTime started = ZonedDateTime.now();
+            AtomicLong maxLag = new AtomicLong();
+            AtomicReference<Exception> writerError = new AtomicReference<>();
 
-            thread = Thread.ofVirtual().name("mqtt-subscribe").start(throwRunnable(() ->
+            writer = Thread.ofVirtual().name("mqtt-subscribe-writer").start(() ->
             {
-                connection.subscribe(runContext, this, throwConsumer(message ->
-                {
-                    FileSerde.write(output, message);
+                Message[] batch = new Message[WRITE_BATCH_SIZE];
+                long[] receivedAt = new long[WRITE_BATCH_SIZE];
 
-                    total.getAndIncrement();
-                    count.compute(message.getTopic(), (s, integer) -> integer == null ? 1 : integer + 1);
-                }));
+                try {
+                    int drained;
+                    while ((drained = buffer.drain(batch, receivedAt, 100, TimeUnit.MILLISECONDS)) >= 0) {
+                        for (int i = 0; i < drained; i++) {
+                            files.write(batch[i]);
+                            count.merge(batch[i].getTopic(), 1, Integer::sum);
+                            batch[i] = null;
+                        }
+
+                        // also reached on an empty drain, so a chunk is rolled over on time when no message comes
+                        files.flush();
+
+                        if (drained > 0) {
+                            // the first message of a batch is the one that waited the longest
+                            maxLag.accumulateAndGet(System.nanoTime() - receivedAt[0], Math::max);
+                        }
+                    }
+                } catch (Exception e) {
+                    writerError.set(e);
+                    buffer.close();
+                    limits.complete();
+                }
+            });
+
+            if (connection.isSessionPresent()) {
+                runContext.logger().debug("Resumed the persistent session, its subscriptions are kept by the broker");
+            }
+
+            connection.subscribe(runContext, plan, throwConsumer(message ->
+            {
+                if (aggregator != null) {
+                    if (limits.tryAcquire()) {
+                        aggregator.add(message.getTopic(), (byte[]) message.getPayload());
+
+                        if (rPersistentSession) {
+                            connection.acknowledge(message);
+                        }
+                    }
+                    return;
+                }
+
+                if (rConflate) {
+                    if (limits.tryAcquire()) {
+                        if (latest.put(message.getTopic(), message) != null) {
+                            superseded.increment();
+                        }
+
+                        if (rPersistentSession) {
+                            connection.acknowledge(message);
+                        }
+                    }
+                    return;
+                }
+
+                // with a persistent session, a message that isn't acknowledged is delivered again on the next run
+                if (limits.tryAcquire() && buffer.put(message) && rPersistentSession) {
+                    connection.acknowledge(message);
+                }
             }));
 
-            while (!this.ended(total, started, runContext)) {
-                //noinspection BusyWait
-                Thread.sleep(100);
+            limits.await();
+
+            // the session keeps the subscriptions, so the broker queues messages until the next run
+            if (!rPersistentSession) {
+                connection.unsubscribe(runContext, plan);
+            }
+            buffer.close();
+            writer.join();
+
+            if (writerError.get() != null) {
+                throw new Exception("Failed to write received messages: " + writerError.get().getMessage(), writerError.get());
+            }
+
+            // the snapshot is written once nothing can replace its messages anymore
+            for (Message message : latest.values()) {
+                files.write(message);
+                count.merge(message.getTopic(), 1, Integer::sum);
             }
 
-            connection.unsubscribe(runContext, this);
-            thread.join();
+            if (aggregator != null) {
+                if (plan.getDeduplicator() != null) {
+                    plan.getDeduplicator().report(runContext);
+                }
 
-            output.flush();
+                return this.aggregateOutput(runContext, aggregator, startTime);
+            }
+
+            List<URI> uris = files.finish();
 
             count
                 .forEach((s, integer) -> runContext.metric(Counter.of("records", integer, "topic", s)));
 
             runContext.metric(Timer.of("duration", Duration.ofNanos(System.nanoTime() - startTime)));
+            runContext.metric(Counter.of("buffer.peak", buffer.peak()));
+            runContext.metric(Timer.of("writer.lag", Duration.ofNanos(maxLag.get())));
+            runContext.metric(Counter.of("chunks", uris.size()));
+            if (plan.getDeduplicator() != null) {
+                plan.getDeduplicator().report(runContext);
+            }
+            if (rConflate) {
+                runContext.metric(Counter.of("superseded", superseded.sum()));
+            }
 
             return Output.builder()
                 .messagesCount(count.values().stream().mapToInt(Integer::intValue).sum())
-                .uri(runContext.storage().putFile(tempFile))
+                .supersededCount(rConflate ? superseded.intValue() : null)
+                .uri(files.isRolling() ? null : uris.getFirst())
+                .uris(files.isRolling() ? uris : null)
                 .build();
         } finally {
-            if (thread != null) {
-                thread.interrupt();
+            if (writer != null) {
+                writer.interrupt();
             }
         }
     }
 
+    private TopicAggregator aggregator(RunContext runContext) throws IllegalVariableEvaluationException {
+        String rField = runContext.render(this.aggregateField).as(String.class).orElse(null);
+        if (rField == null) {
+            return null;
+        }
+
+        return new TopicAggregator(
+            rField,
+            runContext.render(this.aggregateWindow).as(Duration.class).orElse(null),
+            runContext.render(this.aggregatePercentiles).asList(Double.class)
+        );
+    }
+
+    private Output aggregateOutput(RunContext runContext, TopicAggregator aggregator, long startTime) throws IOException {
+        List<Map<String, Object>> rows = aggregator.rows();
+
+        File tempFile = runContext.workingDir().createTempFile(".ion").toFile();
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile), FileSerde.BUFFER_SIZE)) {
+            for (Map<String, Object> row : rows) {
+                FileSerde.write(output, row);
+            }
+        }
+
+        URI uri = runContext.storage().putFile(tempFile);
+        Files.deleteIfExists(tempFile.toPath());
+
+        long aggregated = rows.stream().mapToLong(row -> (Long) row.get("count")).sum();
+
+        runContext.metric(Counter.of("records", aggregated));
+        runContext.metric(Counter.of("skipped", aggregator.skipped()));
+        runContext.metric(Timer.of("duration", Duration.ofNanos(System.nanoTime() - startTime)));
+
+        return Output.builder()
+            .messagesCount((int) aggregated)
+            .uri(uri)
+            .build();
+    }
+
     @SuppressWarnings("unchecked")
     public String[] topics(RunContext runContext) throws IllegalVariableEvaluationException {
         if (this.topic instanceof String) {
@@ -172,21 +515,6 @@ public class Subscribe extends AbstractMqttConnection implements RunnableTask<Su
         }
     }
 
-    @SuppressWarnings("RedundantIfStatement")
-    private boolean ended(AtomicInteger count, ZonedDateTime start, RunContext runContext) throws IllegalVariableEvaluationException {
-        var renderedMaxRecords = runContext.render(this.maxRecords).as(Integer.class);
-        if (renderedMaxRecords.isPresent() && count.get() >= renderedMaxRecords.get()) {
-            return true;
-        }
-
-        var renderedDuration = runContext.render(this.maxDuration).as(Duration.class);
-        if (renderedDuration.isPresent() && ZonedDateTime.now().toEpochSecond() > start.plus(renderedDuration.get()).toEpochSecond()) {
-            return true;
-        }
-
-        return false;
-    }
-
     @Builder
     @Getter
     public static class Output implements io.kestra.core.models.tasks.Output {
@@ -196,8 +524,21 @@ public class Subscribe extends AbstractMqttConnection implements RunnableTask<Su
         private final Integer messagesCount;
 
         @Schema(
-            title = "URI of the internal storage file"
+            title = "URI of the internal storage file",
+            description = "Only set when the output is not rolled over into chunks."
         )
         private URI uri;
+
+        @Schema(
+            title = "URIs of the internal storage files, in the order they were written",
+            description = "Only set when `chunkSize`, `chunkRecords` or `chunkDuration` is set."
+        )
+        private List<URI> uris;
+
+        @Schema(
+            title = "Number of messages replaced by a newer one of the same topic",
+            description = "Only set when `conflate` is enabled."
+        )
+        private final Integer supersededCount;
     }
 }
@@ -1,6 +1,11 @@
 package io.kestra.plugin.mqtt;
 
+import java.time.Duration;
+import java.util.Map;
+
 import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.property.Property;
+import io.kestra.plugin.mqtt.services.SerdeType;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotNull;
@@ -14,4 +19,85 @@ public interface SubscribeInterface {
     @PluginProperty(dynamic = true, group = "main")
     Object getTopic();
 
+    @Schema(
+        title = "Shared subscription group to consume the topics with",
+        description = """
+            Subscribes to each topic as `$share/<shareGroup>/<topic>`, so the broker spreads the messages across all \
+            the clients of the group instead of sending each of them to every client: several workers running the \
+            same flow then split the traffic rather than each receiving a copy. The hostname and process identifier \
+            of the worker are appended to `clientId`, so each worker connects as its own client. Topics that already \
+            start with `$share/` are kept as is. Shared subscriptions are part of MQTT 5, and supported on MQTT 3.1.1 \
+            by most brokers; retained messages are not sent to shared subscriptions. As the client identifier changes \
+            with the worker, a shared subscription cannot keep a `persistentSession`."""
+    )
+    @PluginProperty(group = "main")
+    Property<String> getShareGroup();
+
+    @Schema(
+        title = "Serializer / Deserializer used for the payload of each topic filter",
+        description = """
+            Maps topic filters listed in `topic` to the serde decoding the messages received on them, the others \
+            using `serdeType`. This lets one subscription mix e.g. JSON telemetry, binary firmware chunks and string \
+            status topics. When a topic matches several filters, the most specific one wins. On MQTT 5 the broker \
+            tags each message with the subscription it was received on, otherwise its topic is resolved against \
+            the filters. All serdes share `codecOptions`, so `AVRO` and `PROTOBUF` cannot be mixed, and the \
+            filters of either serde are decoded with one schema."""
+    )
+    @PluginProperty(group = "main")
+    Property<Map<String, SerdeType>> getSerdeTypes();
+
+    @Schema(
+        title = "Only keep messages whose topic matches this regular expression",
+        description = "The whole topic must match. Messages dropped by any `filter*` property are acknowledged and never decoded, nor written or turned into an execution."
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getFilterTopic();
+
+    @Schema(
+        title = "Only keep messages with these MQTT 5 user properties",
+        description = "Every property must be set to the given value. MQTT 3.1.1 messages have no user properties, so none of them are kept."
+    )
+    @PluginProperty(group = "advanced")
+    Property<Map<String, String>> getFilterUserProperties();
+
+    @Schema(
+        title = "Only keep messages whose JSON payload has a value at this JSON pointer",
+        description = """
+            e.g. `/status` or `/readings/0/unit`. The payload is scanned as raw bytes up to the value, without \
+            being decoded. Payloads that aren't JSON, or where the value is missing or `null`, are dropped."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getFilterJsonPointer();
+
+    @Schema(
+        title = "Only keep messages where the value at `filterJsonPointer` equals this one",
+        description = "Compared to the text of the value: `ERROR` matches the string `\"ERROR\"`, `42` the number `42` and `true` the boolean `true`."
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getFilterJsonValue();
+
+    @Schema(
+        title = "Drop messages already received within this window",
+        description = """
+            QoS 1 is at-least-once: after a reconnect, the broker may send again messages already received. When \
+            set, a message with the same topic and payload as one received within the window, or the same \
+            `deduplicationUserProperty`, is acknowledged and dropped. Duplicates dropped and messages let through \
+            are counted in the `dedup.hits` and `dedup.misses` metrics."""
+    )
+    @PluginProperty(group = "advanced")
+    Property<Duration> getDeduplicationWindow();
+
+    @Schema(
+        title = "The number of messages remembered for deduplication",
+        description = "Bounds the memory used, 16 to 32 bytes per message; when more than half of it are received within `deduplicationWindow`, older messages are forgotten earlier. Defaults to 100000."
+    )
+    @PluginProperty(group = "advanced")
+    Property<Integer> getDeduplicationSize();
+
+    @Schema(
+        title = "The MQTT 5 user property identifying a message for deduplication",
+        description = "For publishers setting a unique identifier on each message, so different messages with the same payload are kept. Messages without it are identified by their payload."
+    )
+    @PluginProperty(group = "advanced")
+    Property<String> getDeduplicationUserProperty();
 }
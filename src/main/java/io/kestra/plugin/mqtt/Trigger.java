@@ -1,6 +1,7 @@
 package io.kestra.plugin.mqtt;
 
 import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -12,6 +13,8 @@ import io.kestra.core.models.executions.Execution;
 import io.kestra.core.models.property.Property;
 import io.kestra.core.models.triggers.*;
 import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.mqtt.services.Compression;
+import io.kestra.plugin.mqtt.services.Persistence;
 import io.kestra.plugin.mqtt.services.SerdeType;
 
 import io.kestra.core.models.annotations.PluginProperty;
@@ -53,6 +56,30 @@ import lombok.experimental.SuperBuilder;
                     serdeType: JSON
                     maxRecords: 10
                 """
+        ),
+        @Example(
+            title = "Keep the session between polls, so the broker queues the messages published in the meantime",
+            full = true,
+            code = """
+                id: mqtt_trigger_persistent_session
+                namespace: company.team
+
+                tasks:
+                  - id: log
+                    type: io.kestra.plugin.core.log.Log
+                    message: "{{ trigger.messagesCount }} messages in {{ trigger.uri }}"
+
+                triggers:
+                  - id: trigger
+                    type: io.kestra.plugin.mqtt.Trigger
+                    server: tcp://localhost:1883
+                    clientId: kestra-sensors-poller
+                    topic: kestra/sensors/#
+                    interval: PT5M
+                    persistentSession: true
+                    sessionExpiry: PT1H
+                    maxIdle: PT2S
+                """
         )
     }
 )
@@ -90,11 +117,43 @@ public class Trigger extends AbstractTrigger implements PollingTriggerInterface,
     @Schema(title = "CA certificate for TLS connections")
     private Property<String> crt;
 
+    @Schema(title = "Where the client keeps the state of its QoS 1 and 2 messages in flight")
+    @Builder.Default
+    private Property<Persistence> persistence = Property.ofValue(Persistence.MEMORY);
+
+    @Schema(title = "The directory `FILE` and `MAPPED` persistence write to")
+    private Property<String> persistenceDirectory;
+
     private Object topic;
 
+    private Property<String> shareGroup;
+
     @Builder.Default
     private Property<SerdeType> serdeType = Property.ofValue(SerdeType.JSON);
 
+    private Property<String> codec;
+
+    private Property<Map<String, Object>> codecOptions;
+
+    @Builder.Default
+    private Property<Compression> compression = Property.ofValue(Compression.NONE);
+
+    private Property<Map<String, SerdeType>> serdeTypes;
+
+    private Property<String> filterTopic;
+
+    private Property<Map<String, String>> filterUserProperties;
+
+    private Property<String> filterJsonPointer;
+
+    private Property<String> filterJsonValue;
+
+    private Property<Duration> deduplicationWindow;
+
+    private Property<Integer> deduplicationSize;
+
+    private Property<String> deduplicationUserProperty;
+
     @Builder.Default
     private Property<Integer> qos = Property.ofValue(1);
 
@@ -102,6 +161,16 @@ public class Trigger extends AbstractTrigger implements PollingTriggerInterface,
 
     private Property<Duration> maxDuration;
 
+    private Property<Duration> maxIdle;
+
+    @Builder.Default
+    private Property<Boolean> persistentSession = Property.ofValue(false);
+
+    private Property<Duration> sessionExpiry;
+
+    @Builder.Default
+    private Property<Boolean> conflate = Property.ofValue(false);
+
     @Override
     public Optional<Execution> evaluate(ConditionContext conditionContext, TriggerContext context) throws Exception {
         RunContext runContext = conditionContext.getRunContext();
@@ -119,12 +188,30 @@ public class Trigger extends AbstractTrigger implements PollingTriggerInterface,
             .username(this.username)
             .password(this.password)
             .crt(this.crt)
+            .persistence(this.persistence)
+            .persistenceDirectory(this.persistenceDirectory)
             .mqttVersion(this.mqttVersion)
             .topic(this.topic)
+            .shareGroup(this.shareGroup)
             .serdeType(this.serdeType)
+            .codec(this.codec)
+            .codecOptions(this.codecOptions)
+            .compression(this.compression)
+            .serdeTypes(this.serdeTypes)
+            .filterTopic(this.filterTopic)
+            .filterUserProperties(this.filterUserProperties)
+            .filterJsonPointer(this.filterJsonPointer)
+            .filterJsonValue(this.filterJsonValue)
+            .deduplicationWindow(this.deduplicationWindow)
+            .deduplicationSize(this.deduplicationSize)
+            .deduplicationUserProperty(this.deduplicationUserProperty)
             .qos(this.qos)
             .maxRecords(this.maxRecords)
             .maxDuration(this.maxDuration)
+            .maxIdle(this.maxIdle)
+            .persistentSession(this.persistentSession)
+            .sessionExpiry(this.sessionExpiry)
+            .conflate(this.conflate)
             .build();
         Subscribe.Output run = task.run(runContext);
 
@@ -0,0 +1,196 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Subscription;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Groups a stream into batches of at most {@code maxSize} items, a batch being emitted once full or once its
+ * first item has waited for the batch wait.
+ * <p>
+ * The wait is {@code maxWait}, or, when adaptive, shrinks with the traffic: it is {@code maxWait} scaled by how
+ * much faster than {@code maxWait} a batch is expected to fill at the current rate, so a batch that has no chance
+ * to fill doesn't hold its first item back for long. The rate is a moving average of the time between items.
+ * <p>
+ * Items are only requested from upstream for the batches requested downstream, so backpressure carries through.
+ * A batch cut short by its wait leaves part of those items to later batches, so batches are also only emitted
+ * on demand: a full batch waits in a queue for a request, and a batch whose wait is over without demand is
+ * emitted as it is on the next request, unless it fills first.
+ */
+public final class Batcher<T> {
+    private static final double SMOOTHING = 0.2;
+
+    private final int maxSize;
+    private final long maxWait;
+    private final boolean adaptive;
+
+    private List<T> batch;
+    private Disposable timer;
+    private long generation;
+    private boolean due;
+
+    private final Deque<List<T>> ready = new ArrayDeque<>();
+    private long demand;
+    private Runnable terminal;
+
+    private long lastArrival;
+    private double interArrival = -1;
+
+    private Batcher(int maxSize, long maxWait, boolean adaptive) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1, got " + maxSize);
+        }
+
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.adaptive = adaptive;
+    }
+
+    public static <T> Flux<List<T>> batch(Flux<T> source, int maxSize, Duration maxWait, boolean adaptive) {
+        return Flux.defer(() -> new Batcher<T>(maxSize, maxWait.toNanos(), adaptive).apply(source));
+    }
+
+    private Flux<List<T>> apply(Flux<T> source) {
+        return Flux.create(sink -> {
+            BaseSubscriber<T> upstream = new BaseSubscriber<>() {
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                    // requested along with the downstream demand
+                }
+
+                @Override
+                protected void hookOnNext(T value) {
+                    add(value, sink);
+                }
+
+                @Override
+                protected void hookOnComplete() {
+                    terminate(sink::complete, sink);
+                }
+
+                @Override
+                protected void hookOnError(Throwable throwable) {
+                    terminate(() -> sink.error(throwable), sink);
+                }
+            };
+
+            source.subscribe(upstream);
+
+            sink.onRequest(n -> {
+                // a batch already due goes out before the items newly requested can fill it further
+                this.request(n, sink);
+                upstream.request(n >= Long.MAX_VALUE / maxSize ? Long.MAX_VALUE : n * maxSize);
+            });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                this.cancelTimer();
+            });
+        });
+    }
+
+    private synchronized void add(T value, FluxSink<List<T>> sink) {
+        long now = System.nanoTime();
+        if (adaptive) {
+            if (lastArrival != 0) {
+                double elapsed = now - lastArrival;
+                interArrival = interArrival < 0 ? elapsed : SMOOTHING * elapsed + (1 - SMOOTHING) * interArrival;
+            }
+            lastArrival = now;
+        }
+
+        if (batch == null) {
+            batch = new ArrayList<>(maxSize);
+            due = false;
+
+            long current = ++generation;
+            timer = Schedulers.parallel().schedule(() -> this.timeout(current, sink), this.waitNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        batch.add(value);
+
+        if (batch.size() >= maxSize) {
+            this.flush(sink);
+        }
+    }
+
+    private synchronized void timeout(long expected, FluxSink<List<T>> sink) {
+        if (generation != expected) {
+            return;
+        }
+
+        if (demand > 0) {
+            this.flush(sink);
+        } else {
+            due = true;
+        }
+    }
+
+    private synchronized void request(long n, FluxSink<List<T>> sink) {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+
+        if (due) {
+            this.flush(sink);
+        } else {
+            this.drain(sink);
+        }
+    }
+
+    private synchronized void terminate(Runnable signal, FluxSink<List<T>> sink) {
+        terminal = signal;
+        this.flush(sink);
+    }
+
+    private synchronized void flush(FluxSink<List<T>> sink) {
+        if (batch != null) {
+            ready.add(batch);
+            batch = null;
+            due = false;
+            this.cancelTimer();
+        }
+
+        this.drain(sink);
+    }
+
+    private synchronized void drain(FluxSink<List<T>> sink) {
+        while (demand > 0 && !ready.isEmpty()) {
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            sink.next(ready.poll());
+        }
+
+        // the end of the stream is only signaled once every batch is emitted
+        if (ready.isEmpty() && terminal != null) {
+            Runnable signal = terminal;
+            terminal = null;
+            signal.run();
+        }
+    }
+
+    private synchronized void cancelTimer() {
+        if (timer != null) {
+            timer.dispose();
+            timer = null;
+        }
+    }
+
+    long waitNanos() {
+        if (!adaptive || interArrival <= 0) {
+            return maxWait;
+        }
+
+        double expectedFill = interArrival * maxSize;
+        return (long) (maxWait * Math.min(1.0, maxWait / expectedFill));
+    }
+}
@@ -0,0 +1,379 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Compression of the payloads, applied to the bytes a codec encoded and undone before a codec decodes them.
+ * <p>
+ * On MQTT 5, a compressed payload is marked with a {@value #USER_PROPERTY} user property naming its
+ * {@link #encoding()}, so subscribers decompress it whatever they are configured with. MQTT 3.1.1 has no message
+ * properties: publishers and subscribers must then be set to the same compression.
+ * <p>
+ * Deflaters, inflaters and output buffers are kept in a small pool and reused from one message to the next, the
+ * ones beyond it being released as soon as returned, so threads coming and going don't each hold native zlib
+ * memory. zstd goes through its stateless calls, which hold no native context between messages. Empty payloads,
+ * such as the ones clearing a retained message, are never compressed.
+ */
+@io.swagger.v3.oas.annotations.media.Schema(
+    title = "Compression of the payload"
+)
+public enum Compression {
+    NONE(null, null),
+    GZIP("gzip", Gzip::new),
+    ZSTD("zstd", Zstandard::new),
+    /**
+     * An LZ4 block, prefixed by its uncompressed length as a 4 bytes little-endian integer.
+     */
+    LZ4("lz4", Lz4::new);
+
+    public static final String USER_PROPERTY = "content-encoding";
+
+    // the maximum size of an MQTT packet, bounding the size a payload decompresses to
+    private static final int MAX_PAYLOAD = 268_435_455;
+
+    // output buffers grown beyond it for a large payload aren't kept for the next one
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private final String encoding;
+    private final Supplier<Compressor> factory;
+    private final BlockingQueue<Compressor> idle;
+
+    Compression(String encoding, Supplier<Compressor> factory) {
+        this.encoding = encoding;
+        this.factory = factory;
+        this.idle = factory == null ? null : new ArrayBlockingQueue<>(POOL_SIZE);
+    }
+
+    /**
+     * The value of the {@value #USER_PROPERTY} user property marking payloads compressed this way, {@code null}
+     * for {@link #NONE}.
+     */
+    public String encoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the compression a {@value #USER_PROPERTY} user property names, {@link #NONE} for one it doesn't
+     * know, as set by another publisher for its own use: the payload is then handed to the codec as is
+     */
+    public static Compression of(String encoding) {
+        for (Compression compression : values()) {
+            if (encoding.equalsIgnoreCase(compression.encoding)) {
+                return compression;
+            }
+        }
+
+        return NONE;
+    }
+
+    public byte[] compress(byte[] payload) throws IOException {
+        if (factory == null || payload.length == 0) {
+            return payload;
+        }
+
+        Compressor compressor = this.borrow();
+        try {
+            return compressor.compress(payload);
+        } finally {
+            this.release(compressor);
+        }
+    }
+
+    public byte[] decompress(byte[] payload) throws IOException {
+        if (factory == null || payload.length == 0) {
+            return payload;
+        }
+
+        Compressor compressor = this.borrow();
+        try {
+            return compressor.decompress(payload);
+        } finally {
+            this.release(compressor);
+        }
+    }
+
+    private Compressor borrow() {
+        Compressor compressor = idle.poll();
+        return compressor == null ? factory.get() : compressor;
+    }
+
+    private void release(Compressor compressor) {
+        if (!idle.offer(compressor)) {
+            compressor.close();
+        }
+    }
+
+    private interface Compressor {
+        byte[] compress(byte[] payload) throws IOException;
+
+        byte[] decompress(byte[] payload) throws IOException;
+
+        /**
+         * Releases the native memory held, once dropped from the pool.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Checks the size a payload claims to decompress to before allocating it, so a few crafted bytes can't
+     * claim hundreds of megabytes: it can't be more than the compression ratio of the format allows.
+     */
+    private static int size(long claimed, int compressedLength, int maxRatio) throws ZipException {
+        if (claimed < 0 || claimed > MAX_PAYLOAD || claimed > (long) compressedLength * maxRatio) {
+            throw new ZipException("Invalid decompressed payload size " + claimed + " for " + compressedLength + " compressed bytes");
+        }
+
+        return (int) claimed;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return bytes[offset] & 0xff |
+            (bytes[offset + 1] & 0xff) << 8 |
+            (bytes[offset + 2] & 0xff) << 16 |
+            (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Single member gzip, written around a raw deflate stream so the deflater can be reset rather than reallocated
+     * as {@link java.util.zip.GZIPOutputStream} does.
+     */
+    private static final class Gzip implements Compressor {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+        private static final int TRAILER = 8;
+
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        @Override
+        public byte[] compress(byte[] payload) {
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+
+            System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+            int length = HEADER.length;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            if (length + TRAILER > buffer.length) {
+                buffer = Arrays.copyOf(buffer, length + TRAILER);
+            }
+
+            crc.reset();
+            crc.update(payload);
+            writeIntLE(buffer, length, (int) crc.getValue());
+            writeIntLE(buffer, length + 4, payload.length);
+
+            byte[] compressed = Arrays.copyOf(buffer, length + TRAILER);
+            if (buffer.length > MAX_RETAINED_BUFFER) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+
+            return compressed;
+        }
+
+        @Override
+        public byte[] decompress(byte[] payload) throws IOException {
+            if (payload.length < HEADER.length + TRAILER || payload[0] != HEADER[0] || payload[1] != HEADER[1] || payload[2] != Deflater.DEFLATED) {
+                throw new ZipException("Not in gzip format");
+            }
+
+            int flags = payload[3] & 0xff;
+            int offset = HEADER.length;
+            if ((flags & FEXTRA) != 0) {
+                offset += 2 + (payload[offset] & 0xff | (payload[offset + 1] & 0xff) << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                offset = skipZeroTerminated(payload, offset);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                offset = skipZeroTerminated(payload, offset);
+            }
+            if ((flags & FHCRC) != 0) {
+                offset += 2;
+            }
+
+            int end = payload.length - TRAILER;
+            if (offset > end) {
+                throw new ZipException("Corrupt gzip header");
+            }
+
+            // the buffer grows with what is actually inflated rather than with the size the trailer claims
+            inflater.reset();
+            inflater.setInput(payload, offset, end - offset);
+            int length = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (length == buffer.length) {
+                        if (buffer.length >= MAX_PAYLOAD) {
+                            throw new ZipException("Decompressed gzip payload larger than " + MAX_PAYLOAD + " bytes");
+                        }
+                        buffer = Arrays.copyOf(buffer, (int) Math.min(MAX_PAYLOAD, buffer.length * 2L));
+                    }
+
+                    int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated gzip payload");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt gzip payload: " + e.getMessage());
+            }
+
+            crc.reset();
+            crc.update(buffer, 0, length);
+            if (length != readIntLE(payload, end + 4) || (int) crc.getValue() != readIntLE(payload, end)) {
+                throw new ZipException("Corrupt gzip payload, its size or checksum doesn't match");
+            }
+
+            byte[] decompressed = Arrays.copyOf(buffer, length);
+            if (buffer.length > MAX_RETAINED_BUFFER) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+
+            return decompressed;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+            inflater.end();
+        }
+
+        private static int skipZeroTerminated(byte[] payload, int offset) throws ZipException {
+            while (offset < payload.length) {
+                if (payload[offset++] == 0) {
+                    return offset;
+                }
+            }
+
+            throw new ZipException("Corrupt gzip header");
+        }
+    }
+
+    private static final class Zstandard implements Compressor {
+        private static final int ZSTD_TRUSTED_RATIO = 64;
+
+        @Override
+        public byte[] compress(byte[] payload) throws IOException {
+            try {
+                return Zstd.compress(payload, Zstd.defaultCompressionLevel());
+            } catch (ZstdException e) {
+                throw new ZipException("Cannot compress the payload with zstd: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] payload) throws IOException {
+            try {
+                long size = Zstd.decompressedSize(payload);
+                if (size > 0 && size <= (long) payload.length * ZSTD_TRUSTED_RATIO) {
+                    return Zstd.decompress(payload, (int) size);
+                }
+
+                // frames written by a streaming encoder don't tell their size, and highly compressed ones are only
+                // trusted as far as they actually decompress
+                try (InputStream input = new ZstdInputStream(new ByteArrayInputStream(payload))) {
+                    byte[] decompressed = input.readNBytes(MAX_PAYLOAD + 1);
+                    if (decompressed.length > MAX_PAYLOAD) {
+                        throw new ZipException("Decompressed zstd payload larger than " + MAX_PAYLOAD + " bytes");
+                    }
+
+                    return decompressed;
+                }
+            } catch (ZstdException e) {
+                throw new ZipException("Corrupt zstd payload: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Lz4 implements Compressor {
+        // a byte of an LZ4 block decompresses to at most 255 bytes
+        private static final int LZ4_MAX_RATIO = 255;
+
+        private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        private static final LZ4SafeDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        @Override
+        public byte[] compress(byte[] payload) {
+            int maxLength = 4 + COMPRESSOR.maxCompressedLength(payload.length);
+            if (maxLength > buffer.length) {
+                buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+            }
+
+            writeIntLE(buffer, 0, payload.length);
+            int length = COMPRESSOR.compress(payload, 0, payload.length, buffer, 4, buffer.length - 4);
+
+            byte[] compressed = Arrays.copyOf(buffer, 4 + length);
+            if (buffer.length > MAX_RETAINED_BUFFER) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+
+            return compressed;
+        }
+
+        @Override
+        public byte[] decompress(byte[] payload) throws IOException {
+            if (payload.length < 4) {
+                throw new ZipException("Corrupt lz4 payload");
+            }
+
+            byte[] decompressed = new byte[size(Integer.toUnsignedLong(readIntLE(payload, 0)), payload.length - 4, LZ4_MAX_RATIO)];
+            try {
+                int length = DECOMPRESSOR.decompress(payload, 4, payload.length - 4, decompressed, 0, decompressed.length);
+                if (length != decompressed.length) {
+                    throw new ZipException("Corrupt lz4 payload, its size doesn't match");
+                }
+            } catch (LZ4Exception e) {
+                throw new ZipException("Corrupt lz4 payload: " + e.getMessage());
+            }
+
+            return decompressed;
+        }
+    }
+}
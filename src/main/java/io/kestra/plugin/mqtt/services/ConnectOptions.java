@@ -0,0 +1,87 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Optional;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * Client tuning a task resolves for its own use of the connection, on top of the common connection properties.
+ */
+@Value
+@Builder
+@With
+public class ConnectOptions {
+    public static final ConnectOptions DEFAULT = ConnectOptions.builder().build();
+
+    /**
+     * The highest receive maximum MQTT 5 allows.
+     */
+    public static final int MAX_RECEIVE_MAXIMUM = 65535;
+
+    /**
+     * Number of QoS 1 and 2 publishes allowed to await their acknowledgement at the same time.
+     * MQTT 3.1.1 clients are configured with it, MQTT 5 clients are further bounded by the broker's receive maximum.
+     */
+    @Builder.Default
+    int maxInFlight = 1;
+
+    /**
+     * MQTT 5 receive maximum: how many QoS 1 and 2 messages the broker may send before waiting for their
+     * acknowledgement, {@code null} for the broker default.
+     */
+    Integer receiveMaximum;
+
+    /**
+     * Appended to the configured client identifier, for a task opening several connections at once.
+     */
+    String clientIdSuffix;
+
+    /**
+     * {@code false} to resume the session the broker kept for the client identifier, and keep it once disconnected.
+     */
+    @Builder.Default
+    boolean cleanStart = true;
+
+    /**
+     * MQTT 5 session expiry interval in seconds, {@code null} for the session to end with the connection.
+     */
+    Long sessionExpiryInterval;
+
+    /**
+     * Only acknowledge received messages once {@link MqttInterface#acknowledge(Message)} is called for them.
+     */
+    boolean manualAcks;
+
+    /**
+     * Reconnects in place when the connection is lost, {@code null} to report the disconnection instead.
+     */
+    ReconnectPolicy reconnect;
+
+    /**
+     * A suffix telling apart the clients of this process from the ones other workers connect with the same
+     * configured client identifier, as brokers disconnect a client when another one takes its identifier.
+     */
+    public static String instanceSuffix() {
+        return InstanceSuffix.VALUE;
+    }
+
+    public String clientId(String clientId) {
+        return clientId == null || clientIdSuffix == null ? clientId : clientId + clientIdSuffix;
+    }
+
+    private static final class InstanceSuffix {
+        private static final String VALUE = "-" + hostname() + "-" + ProcessHandle.current().pid();
+
+        private static String hostname() {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                return Optional.ofNullable(System.getenv("HOSTNAME")).orElse("localhost");
+            }
+        }
+    }
+}
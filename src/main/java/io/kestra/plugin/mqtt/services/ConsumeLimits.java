@@ -0,0 +1,93 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ends a subscription the moment one of its limits is reached, instead of polling for it.
+ * <p>
+ * {@code maxRecords} is enforced strictly: each received message reserves a slot with {@link #tryAcquire()}, and
+ * the ones arriving once all slots are taken are dropped. {@code maxDuration} counts from the start of the
+ * subscription and {@code maxIdle} from the last message accepted, both with nanosecond precision, so dropped
+ * messages never hold an idle subscription open.
+ */
+public class ConsumeLimits {
+    private final Integer maxRecords;
+    private final Long maxDuration;
+    private final Long maxIdle;
+
+    private final long startedAt = System.nanoTime();
+    private volatile long lastAcceptedAt = startedAt;
+
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    public ConsumeLimits(Integer maxRecords, Duration maxDuration, Duration maxIdle) {
+        this.maxRecords = maxRecords;
+        this.maxDuration = maxDuration == null ? null : maxDuration.toNanos();
+        this.maxIdle = maxIdle == null ? null : maxIdle.toNanos();
+
+        if (maxRecords != null && maxRecords <= 0) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Reserves a slot for a received message.
+     *
+     * @return {@code false} if {@code maxRecords} messages were already accepted, the message must then be dropped
+     */
+    public boolean tryAcquire() {
+        int count = accepted.incrementAndGet();
+        if (maxRecords != null && count > maxRecords) {
+            return false;
+        }
+
+        lastAcceptedAt = System.nanoTime();
+
+        if (maxRecords != null && count == maxRecords) {
+            done.countDown();
+        }
+
+        return true;
+    }
+
+    /**
+     * Ends the subscription early, e.g. on a failure.
+     */
+    public void complete() {
+        done.countDown();
+    }
+
+    /**
+     * Waits until {@code maxRecords} messages were accepted, {@code maxDuration} elapsed, no message was accepted
+     * for {@code maxIdle}, or {@link #complete()} was called.
+     */
+    public void await() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            Long remaining = null;
+
+            if (maxDuration != null) {
+                remaining = startedAt + maxDuration - now;
+            }
+
+            if (maxIdle != null) {
+                long idleRemaining = lastAcceptedAt + maxIdle - now;
+                remaining = remaining == null ? idleRemaining : Math.min(remaining, idleRemaining);
+            }
+
+            if (remaining == null) {
+                done.await();
+                return;
+            }
+
+            // a deadline wake-up is checked again, as a new message moves the idle deadline
+            if (remaining <= 0 || done.await(remaining, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        }
+    }
+}
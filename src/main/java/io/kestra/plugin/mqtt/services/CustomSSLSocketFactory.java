@@ -1,22 +1,66 @@
 package io.kestra.plugin.mqtt.services;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
 public class CustomSSLSocketFactory {
+    private static final int CACHE_SIZE = 32;
+
+    /**
+     * Socket factories by certificate, least recently used first. Reusing a factory reuses its {@link SSLContext}
+     * and so its client session cache, letting the next connection to the same broker resume the TLS session
+     * instead of going through a full handshake.
+     */
+    private static final Map<String, SSLSocketFactory> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SSLSocketFactory> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
 
     private CustomSSLSocketFactory() {
         // utility class
     }
 
+    /**
+     * Returns the socket factory cached for this key, or {@code null}.
+     *
+     * @param key the certificate content hash from {@link #key(byte[])}
+     */
+    public static SSLSocketFactory cached(String key) {
+        return CACHE.get(key);
+    }
+
+    /**
+     * Creates the socket factory trusting this certificate, and caches it under the given key.
+     *
+     * @see #createSSLSocketFactory(InputStream)
+     */
+    public static SSLSocketFactory cache(String key, byte[] certificate) throws GeneralSecurityException, IOException {
+        var sslSocketFactory = createSSLSocketFactory(new ByteArrayInputStream(certificate));
+        CACHE.put(key, sslSocketFactory);
+
+        return sslSocketFactory;
+    }
+
+    public static String key(byte[] certificate) throws GeneralSecurityException {
+        return "sha256:" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(certificate));
+    }
+
     /**
      * Creates an {@link SSLSocketFactory} that trusts the CA certificate provided as an {@link InputStream}.
      *
@@ -0,0 +1,173 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch with a relative accuracy guarantee, after DDSketch (Masson, Rim and Lee, VLDB 2019).
+ * <p>
+ * A value is counted in the bin of index {@code ceil(log(|v|) / log(gamma))}, {@code gamma} being
+ * {@code (1 + a) / (1 - a)} for a relative accuracy {@code a}, so every quantile is estimated within {@code a}
+ * of its actual value. Bins are dense arrays of counts, for positive and negative values separately; once there
+ * are more than a maximum number of them, the lowest ones are merged together, only losing accuracy on the
+ * smallest magnitudes.
+ */
+public final class DDSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final int MAX_BINS = 2048;
+
+    private final double gamma;
+    private final double logGamma;
+
+    private final Store positives = new Store();
+    private final Store negatives = new Store();
+    private long zeros;
+    private long count;
+
+    public DDSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1, got " + relativeAccuracy);
+        }
+
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * @return {@code false} for an infinite or NaN value, which has no bin and isn't added
+     */
+    public boolean add(double value) {
+        if (!Double.isFinite(value)) {
+            return false;
+        }
+
+        if (value > Double.MIN_NORMAL) {
+            positives.add(this.index(value));
+        } else if (value < -Double.MIN_NORMAL) {
+            negatives.add(this.index(-value));
+        } else {
+            zeros++;
+        }
+
+        count++;
+        return true;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the estimated value at the quantile, {@code NaN} when nothing was added
+     */
+    public double quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1, got " + quantile);
+        }
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1));
+
+        // negative values from the largest magnitude down, then zeros, then positive values up
+        if (rank < negatives.total) {
+            int index = negatives.indexAtRank(negatives.total - 1 - rank);
+            return -this.value(index);
+        }
+        rank -= negatives.total;
+
+        if (rank < zeros) {
+            return 0;
+        }
+        rank -= zeros;
+
+        return this.value(positives.indexAtRank(rank));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * The value a bin stands for, equally far in relative terms from both of its bounds.
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Counts of contiguous bin indexes, {@code counts[i]} holding the count of the bin {@code offset + i}.
+     */
+    private static final class Store {
+        private long[] counts;
+        private int offset;
+        private long total;
+
+        void add(int index) {
+            if (counts == null) {
+                counts = new long[64];
+                offset = index - counts.length / 2;
+            }
+
+            if (index < offset) {
+                this.growDown(index);
+            } else if (index >= offset + counts.length) {
+                this.growUp(index);
+            }
+
+            counts[Math.max(index, offset) - offset]++;
+            total++;
+        }
+
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return offset + i;
+                }
+            }
+
+            return offset + counts.length - 1;
+        }
+
+        private void growDown(int index) {
+            int length = Math.min(MAX_BINS, Math.max(offset + counts.length - index, counts.length * 2));
+            if (length == counts.length) {
+                // already as wide as allowed, the lowest bin kept counts the index
+                return;
+            }
+
+            long[] grown = new long[length];
+            int shift = length - counts.length;
+            System.arraycopy(counts, 0, grown, shift, counts.length);
+
+            counts = grown;
+            offset -= shift;
+        }
+
+        private void growUp(int index) {
+            int span = index - offset + 1;
+            if (span <= MAX_BINS) {
+                counts = Arrays.copyOf(counts, Math.min(MAX_BINS, Math.max(span, counts.length * 2)));
+                return;
+            }
+
+            // slides up to the index, the lowest bins being merged into the first one kept
+            int shift = span - MAX_BINS;
+            long[] shifted = new long[MAX_BINS];
+            for (int i = 0; i <= shift && i < counts.length; i++) {
+                shifted[0] += counts[i];
+            }
+            if (shift + 1 < counts.length) {
+                System.arraycopy(counts, shift + 1, shifted, 1, counts.length - shift - 1);
+            }
+
+            counts = shifted;
+            offset += shift;
+        }
+    }
+}
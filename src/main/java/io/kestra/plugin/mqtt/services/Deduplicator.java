@@ -0,0 +1,197 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Recognizes messages already received, such as QoS 1 messages the broker sends again after a reconnect.
+ * <p>
+ * A message is identified by a 64 bits MurmurHash3 style hash of its topic and payload, or of its topic and an MQTT 5 user property
+ * when the publisher sets a unique one. Hashes are kept in two generations of open-addressing tables of primitive
+ * longs: once the current generation is full or as old as the window, it becomes the previous one and the oldest
+ * generation is dropped. A message is so remembered for at least the window, unless more than half the size of
+ * distinct messages arrive within it, and the memory used is bounded by the size whatever the traffic.
+ */
+public final class Deduplicator {
+    public static final int DEFAULT_SIZE = 100_000;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final String userProperty;
+    private final long window;
+    private final int generationSize;
+
+    private LongSet current;
+    private LongSet previous;
+    private long rotatedAt = System.nanoTime();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public Deduplicator(Duration window, int size, String userProperty) {
+        if (size < 2) {
+            throw new IllegalArgumentException("The deduplication size must be at least 2, got " + size);
+        }
+
+        this.userProperty = userProperty;
+        this.window = window.toNanos();
+        this.generationSize = (size + 1) / 2;
+        this.current = new LongSet(generationSize);
+        this.previous = new LongSet(generationSize);
+    }
+
+    /**
+     * Remembers the message, and tells whether it was already.
+     */
+    public boolean isDuplicate(String topic, byte[] payload, Function<String, String> userProperties) {
+        long key = this.key(topic, payload, userProperties);
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (current.size() >= generationSize || now - rotatedAt >= window) {
+                LongSet dropped = previous;
+                previous = current;
+                current = dropped;
+                current.clear();
+                rotatedAt = now;
+            }
+
+            if (current.contains(key) || previous.contains(key)) {
+                hits.increment();
+                return true;
+            }
+
+            current.add(key);
+        }
+
+        misses.increment();
+        return false;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public void report(RunContext runContext) {
+        runContext.metric(Counter.of("dedup.hits", this.hits()));
+        runContext.metric(Counter.of("dedup.misses", this.misses()));
+    }
+
+    private long key(String topic, byte[] payload, Function<String, String> userProperties) {
+        long hash = hash(0, topic.getBytes(StandardCharsets.UTF_8));
+
+        String id = userProperty == null ? null : userProperties.apply(userProperty);
+        if (id != null) {
+            // tells an identifier apart from a payload with the same bytes
+            hash = hash(mix(hash, 1), id.getBytes(StandardCharsets.UTF_8));
+        } else {
+            hash = hash(mix(hash, 0), payload);
+        }
+
+        return finish(hash);
+    }
+
+    private static long hash(long hash, byte[] bytes) {
+        int i = 0;
+        for (; i + Long.BYTES <= bytes.length; i += Long.BYTES) {
+            hash = mix(hash, (long) LONGS.get(bytes, i));
+        }
+
+        long tail = 0;
+        for (int shift = 0; i < bytes.length; i++, shift += Byte.SIZE) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+
+        // the length tells apart inputs differing only by trailing zero bytes
+        return mix(hash ^ bytes.length, tail);
+    }
+
+    private static long mix(long hash, long block) {
+        hash ^= Long.rotateLeft(block * C1, 31) * C2;
+        return Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+
+    /**
+     * Open-addressing set of longs with linear probing, never holding more than half its slots so probes stay short.
+     */
+    static final class LongSet {
+        // stands for the key 0, which marks an empty slot
+        private static final long ZERO = 0x9E3779B97F4A7C15L;
+
+        private final long[] slots;
+        private final int mask;
+        private int size;
+
+        LongSet(int capacity) {
+            int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            this.slots = new long[length];
+            this.mask = length - 1;
+        }
+
+        boolean contains(long key) {
+            long rKey = key == 0 ? ZERO : key;
+
+            for (int i = index(rKey); ; i = (i + 1) & mask) {
+                long slot = slots[i];
+                if (slot == 0) {
+                    return false;
+                }
+                if (slot == rKey) {
+                    return true;
+                }
+            }
+        }
+
+        void add(long key) {
+            long rKey = key == 0 ? ZERO : key;
+
+            int i = index(rKey);
+            while (slots[i] != 0) {
+                if (slots[i] == rKey) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            slots[i] = rKey;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(slots, 0);
+            size = 0;
+        }
+
+        private int index(long key) {
+            // the key is already a hash, its high bits are as good as any
+            return (int) (key >>> 32 ^ key) & mask;
+        }
+    }
+}
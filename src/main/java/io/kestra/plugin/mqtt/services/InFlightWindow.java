@@ -0,0 +1,97 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the number of publishes awaiting their delivery token, so a publisher can keep several messages on
+ * the wire instead of waiting for a full broker round trip on each of them.
+ * <p>
+ * A permit is taken before handing a message to the client and given back from the delivery callback, which
+ * also records the failure if there is one. Failures are surfaced on the next {@link #acquire()} so a run stops
+ * early, and all of them are reported by {@link #await()} at the end of the run.
+ * <p>
+ * A connection shared by several runs gives each of them a {@link #lease()}, tracking that run's own publishes
+ * and failures while still counting against the limit of the connection.
+ */
+public class InFlightWindow {
+    private final int size;
+    private final InFlightWindow parent;
+    private final Semaphore permits;
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public InFlightWindow(int size) {
+        this(size, null);
+    }
+
+    private InFlightWindow(int size, InFlightWindow parent) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The in-flight window must be at least 1, got " + size);
+        }
+
+        this.size = size;
+        this.parent = parent;
+        this.permits = new Semaphore(size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public InFlightWindow lease() {
+        return new InFlightWindow(size, this);
+    }
+
+    public void acquire() throws Exception {
+        this.throwIfFailed();
+        permits.acquire();
+
+        if (parent != null) {
+            try {
+                parent.permits.acquire();
+            } catch (InterruptedException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+
+    public void complete() {
+        permits.release();
+
+        if (parent != null) {
+            parent.permits.release();
+        }
+    }
+
+    public void fail(Throwable throwable) {
+        failed.incrementAndGet();
+        failures.add(throwable);
+        this.complete();
+    }
+
+    /**
+     * Waits for every in-flight publish to be acknowledged, then throws if any of them failed.
+     */
+    public void await() throws Exception {
+        permits.acquire(size);
+        permits.release(size);
+
+        this.throwIfFailed();
+    }
+
+    private void throwIfFailed() throws Exception {
+        Throwable first = failures.peek();
+        if (first == null) {
+            return;
+        }
+
+        Exception exception = new Exception(failed.get() + " publish(es) failed, first cause: " + first.getMessage(), first);
+        failures.stream().skip(1).limit(10).forEach(exception::addSuppressed);
+
+        throw exception;
+    }
+}
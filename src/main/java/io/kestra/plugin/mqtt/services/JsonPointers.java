@@ -0,0 +1,80 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Resolves JSON pointers by streaming through the raw bytes of a payload rather than decoding it into a tree:
+ * what the pointer doesn't go through is skipped, and parsing stops at the value it designates.
+ */
+final class JsonPointers {
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonPointers() {
+    }
+
+    /**
+     * @return the number the pointer designates in the payload, {@code null} if it isn't one or the payload isn't JSON
+     */
+    static Double number(byte[] payload, JsonPointer pointer) {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || !seek(parser, token, pointer) || !parser.currentToken().isNumeric()) {
+                return null;
+            }
+
+            return parser.getDoubleValue();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the parser, positioned on a value, to the value the pointer designates in it.
+     *
+     * @return {@code false} if the value doesn't exist
+     */
+    static boolean seek(JsonParser parser, JsonToken token, JsonPointer pointer) throws IOException {
+        if (pointer.matches()) {
+            return true;
+        }
+
+        if (token == JsonToken.START_OBJECT) {
+            String property = pointer.getMatchingProperty();
+
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                token = parser.nextToken();
+
+                if (name.equals(property)) {
+                    return seek(parser, token, pointer.tail());
+                }
+
+                parser.skipChildren();
+            }
+
+            return false;
+        }
+
+        if (token == JsonToken.START_ARRAY) {
+            int index = pointer.getMatchingIndex();
+            if (index < 0) {
+                return false;
+            }
+
+            for (int i = 0; (token = parser.nextToken()) != JsonToken.END_ARRAY && token != null; i++) {
+                if (i == index) {
+                    return seek(parser, token, pointer.tail());
+                }
+
+                parser.skipChildren();
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,125 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.common.MqttPersistable;
+import org.eclipse.paho.mqttv5.common.MqttPersistenceException;
+
+/**
+ * MQTT 5 client persistence backed by a {@link MappedSegmentLog}.
+ */
+public class MappedPersistenceV5 implements MqttClientPersistence {
+    private final Path directory;
+    private final int segmentSize;
+
+    private MappedSegmentLog log;
+
+    public MappedPersistenceV5(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void open(String clientId) throws MqttPersistenceException {
+        log = new MappedSegmentLog(Persistence.clientDirectory(directory, clientId), segmentSize);
+
+        try {
+            log.open();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public void close() throws MqttPersistenceException {
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        try {
+            log.put(
+                key,
+                persistable.getHeaderBytes(), persistable.getHeaderOffset(), persistable.getHeaderLength(),
+                persistable.getPayloadBytes(), persistable.getPayloadOffset(), persistable.getPayloadLength()
+            );
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public MqttPersistable get(String key) {
+        MappedSegmentLog.Entry entry = log.get(key);
+
+        return entry == null ? null : new Persistable(entry);
+    }
+
+    @Override
+    public void remove(String key) throws MqttPersistenceException {
+        try {
+            log.remove(key);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return Collections.enumeration(log.keys());
+    }
+
+    @Override
+    public void clear() throws MqttPersistenceException {
+        try {
+            log.clear();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return log.containsKey(key);
+    }
+
+    private record Persistable(MappedSegmentLog.Entry entry) implements MqttPersistable {
+        @Override
+        public byte[] getHeaderBytes() {
+            return entry.header();
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return entry.header().length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return entry.payload();
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return entry.payload().length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Key-value store for the in-flight state of a client, kept in memory and appended to a log of memory-mapped
+ * segment files, so QoS 1 and 2 messages survive a worker restart for about the cost of a memory copy.
+ * <p>
+ * Each put or remove appends one record to the current segment; reads are served from memory. When a segment is
+ * full, the log rolls over to a new one, and is first compacted into a single segment holding only the live
+ * records once they take less than half of it. Opening the store replays its segments in order.
+ * <p>
+ * A record is written before its length, so one torn by a crash reads as the end of the log. Writes land in the
+ * page cache: they survive the process dying, but are only forced to the disk on {@link #close()}.
+ */
+public class MappedSegmentLog implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = ".lck";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    // length, type, key length
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + 1 + Short.BYTES;
+
+    public record Entry(byte[] header, byte[] payload, int recordSize) {
+    }
+
+    private record Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    private long liveBytes;
+    private long totalBytes;
+
+    public MappedSegmentLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another client of this process, file locks are only exclusive between processes
+            lock = null;
+        }
+
+        if (lock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("The persistence directory '" + directory + "' is already used by another client");
+        }
+
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList();
+        }
+
+        for (Path path : paths) {
+            Segment segment = map(path, segmentId(path), Files.size(path));
+            this.replay(segment.buffer());
+            segments.addLast(segment);
+        }
+    }
+
+    public synchronized void put(String key, byte[] header, int headerOffset, int headerLength, byte[] payload, int payloadOffset, int payloadLength) throws IOException {
+        byte[] rKey = key.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_SIZE + rKey.length + Integer.BYTES + headerLength + Integer.BYTES + payloadLength;
+
+        MappedByteBuffer buffer = this.writable(size);
+        int position = buffer.position();
+
+        buffer.position(position + Integer.BYTES);
+        buffer.put(PUT).putShort((short) rKey.length).put(rKey);
+        buffer.putInt(headerLength).put(header, headerOffset, headerLength);
+        buffer.putInt(payloadLength);
+        if (payloadLength > 0) {
+            buffer.put(payload, payloadOffset, payloadLength);
+        }
+        buffer.putInt(position, size);
+
+        totalBytes += size;
+        this.index(key, copy(header, headerOffset, headerLength), copy(payload, payloadOffset, payloadLength), size);
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        if (!entries.containsKey(key)) {
+            return;
+        }
+
+        byte[] rKey = key.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_SIZE + rKey.length;
+
+        MappedByteBuffer buffer = this.writable(size);
+        int position = buffer.position();
+
+        buffer.position(position + Integer.BYTES);
+        buffer.put(REMOVE).putShort((short) rKey.length).put(rKey);
+        buffer.putInt(position, size);
+
+        totalBytes += size;
+        this.unindex(key);
+    }
+
+    public synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized boolean containsKey(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized Set<String> keys() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    public synchronized void clear() throws IOException {
+        for (Segment segment : segments) {
+            segment.channel().close();
+            Files.deleteIfExists(segment.path());
+        }
+
+        segments.clear();
+        entries.clear();
+        liveBytes = 0;
+        totalBytes = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (Segment segment : segments) {
+                segment.buffer().force();
+                segment.channel().close();
+            }
+        } finally {
+            segments.clear();
+            entries.clear();
+
+            if (lock != null) {
+                lock.release();
+                lockChannel.close();
+                lock = null;
+            }
+        }
+    }
+
+    private void replay(MappedByteBuffer buffer) {
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int position = buffer.position();
+            int size = buffer.getInt(position);
+            if (size < RECORD_HEADER_SIZE || size > buffer.remaining()) {
+                break;
+            }
+
+            buffer.position(position + Integer.BYTES);
+            byte type = buffer.get();
+            byte[] key = new byte[buffer.getShort()];
+            buffer.get(key);
+
+            if (type == PUT) {
+                byte[] header = new byte[buffer.getInt()];
+                buffer.get(header);
+                byte[] payload = new byte[buffer.getInt()];
+                buffer.get(payload);
+
+                this.index(new String(key, StandardCharsets.UTF_8), header, payload, size);
+            } else {
+                this.unindex(new String(key, StandardCharsets.UTF_8));
+            }
+
+            buffer.position(position + size);
+            totalBytes += size;
+        }
+    }
+
+    private void index(String key, byte[] header, byte[] payload, int size) {
+        Entry previous = entries.put(key, new Entry(header, payload, size));
+        liveBytes += size - (previous == null ? 0 : previous.recordSize());
+    }
+
+    private void unindex(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            liveBytes -= previous.recordSize();
+        }
+    }
+
+    private MappedByteBuffer writable(int size) throws IOException {
+        Segment current = segments.peekLast();
+        if (current != null && current.buffer().remaining() >= size) {
+            return current.buffer();
+        }
+
+        if (current != null && liveBytes * 2 < totalBytes) {
+            this.compact();
+
+            current = segments.peekLast();
+            if (current.buffer().remaining() >= size) {
+                return current.buffer();
+            }
+        }
+
+        return this.roll(size).buffer();
+    }
+
+    private Segment roll(long minimumSize) throws IOException {
+        long id = segments.isEmpty() ? 0 : segments.peekLast().id() + 1;
+        Segment segment = map(directory.resolve(segmentName(id)), id, Math.max(segmentSize, minimumSize));
+        segments.addLast(segment);
+
+        return segment;
+    }
+
+    /**
+     * Rewrites the live records into a new segment, then deletes the older ones. A crash in between leaves both,
+     * which replay to the same state as the new segment comes last.
+     */
+    private void compact() throws IOException {
+        List<Segment> compacted = new ArrayList<>(segments);
+        Segment segment = this.roll(liveBytes);
+        MappedByteBuffer buffer = segment.buffer();
+
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            byte[] rKey = e.getKey().getBytes(StandardCharsets.UTF_8);
+            Entry entry = e.getValue();
+            int position = buffer.position();
+
+            buffer.position(position + Integer.BYTES);
+            buffer.put(PUT).putShort((short) rKey.length).put(rKey);
+            buffer.putInt(entry.header().length).put(entry.header());
+            buffer.putInt(entry.payload().length).put(entry.payload());
+            buffer.putInt(position, entry.recordSize());
+        }
+
+        buffer.force();
+        totalBytes = liveBytes;
+
+        for (Segment old : compacted) {
+            segments.remove(old);
+            old.channel().close();
+
+            try {
+                Files.deleteIfExists(old.path());
+            } catch (IOException e) {
+                // a file still mapped can't be deleted on some platforms, it is only replayed before the new segment
+            }
+        }
+    }
+
+    private static Segment map(Path path, long id, long size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%020d%s", id, SEGMENT_SUFFIX);
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static byte[] copy(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return new byte[0];
+        }
+
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        return copy;
+    }
+}
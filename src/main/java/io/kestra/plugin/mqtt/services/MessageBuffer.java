@@ -0,0 +1,144 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer handing received messages from the client callback thread to a writer thread, so a slow
+ * disk never stalls the client itself.
+ * <p>
+ * Slots are preallocated, along with the time each message was received at, which is how the writer measures
+ * its lag. When the buffer is full, {@link #put(Message)} blocks the callback thread: the client stops
+ * acknowledging messages, and an MQTT 5 broker stops sending once the receive maximum is reached.
+ */
+public class MessageBuffer {
+    private final Message[] messages;
+    private final long[] receivedAt;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+    private int count;
+    private int peak;
+    private boolean closed;
+
+    public MessageBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The buffer size must be at least 1, got " + capacity);
+        }
+
+        this.messages = new Message[capacity];
+        this.receivedAt = new long[capacity];
+    }
+
+    public int capacity() {
+        return messages.length;
+    }
+
+    /**
+     * Appends a message, waiting for a free slot.
+     *
+     * @return {@code false} if the buffer was closed, the message being dropped
+     */
+    public boolean put(Message message) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == messages.length && !closed) {
+                notFull.await();
+            }
+
+            if (closed) {
+                return false;
+            }
+
+            int tail = (head + count) % messages.length;
+            messages[tail] = message;
+            receivedAt[tail] = System.nanoTime();
+            count++;
+            peak = Math.max(peak, count);
+
+            notEmpty.signal();
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to {@code batch.length} messages into the given batch, waiting at most {@code timeout} for the
+     * first one.
+     *
+     * @return the number of messages moved, {@code 0} on timeout, or {@code -1} once the buffer is closed and empty
+     */
+    public int drain(Message[] batch, long[] batchReceivedAt, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (closed) {
+                    return -1;
+                }
+
+                if (nanos <= 0) {
+                    return 0;
+                }
+
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            int drained = Math.min(count, batch.length);
+            for (int i = 0; i < drained; i++) {
+                batch[i] = messages[head];
+                batchReceivedAt[i] = receivedAt[head];
+
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+            }
+            count -= drained;
+
+            notFull.signalAll();
+
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages, the ones already buffered are still drained.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int peak() {
+        lock.lock();
+        try {
+            return peak;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Drops received messages before they are decoded, so a subscription only pays for the ones it keeps.
+ * <p>
+ * A message is kept when its topic matches a regular expression, its MQTT 5 user properties have given values,
+ * and the value a JSON pointer designates in its payload equals a given one. Each condition is optional; the
+ * pointer is resolved by streaming through the payload bytes, skipping what it doesn't point at, and stops at
+ * the value without parsing the rest of the document.
+ */
+public final class MessageFilter {
+    private final Pattern topic;
+    private final Map<String, String> userProperties;
+    private final JsonPointer pointer;
+    private final String value;
+
+    private MessageFilter(Pattern topic, Map<String, String> userProperties, JsonPointer pointer, String value) {
+        this.topic = topic;
+        this.userProperties = userProperties;
+        this.pointer = pointer;
+        this.value = value;
+    }
+
+    /**
+     * @return the filter for the conditions, or {@code null} when there are none
+     */
+    public static MessageFilter of(String topicPattern, Map<String, String> userProperties, String jsonPointer, String jsonValue) {
+        if (jsonValue != null && jsonPointer == null) {
+            throw new IllegalArgumentException("`filterJsonValue` requires a `filterJsonPointer` to compare it to");
+        }
+
+        if (topicPattern == null && (userProperties == null || userProperties.isEmpty()) && jsonPointer == null) {
+            return null;
+        }
+
+        return new MessageFilter(
+            topicPattern == null ? null : Pattern.compile(topicPattern),
+            userProperties == null || userProperties.isEmpty() ? null : Map.copyOf(userProperties),
+            jsonPointer == null ? null : JsonPointer.compile(jsonPointer),
+            jsonValue
+        );
+    }
+
+    /**
+     * @param userProperty looks up the value of an MQTT 5 user property, {@code null} when the message doesn't have it
+     */
+    public boolean accepts(String topic, byte[] payload, Function<String, String> userProperty) {
+        if (this.topic != null && !this.topic.matcher(topic).matches()) {
+            return false;
+        }
+
+        if (userProperties != null) {
+            for (Map.Entry<String, String> entry : userProperties.entrySet()) {
+                if (!entry.getValue().equals(userProperty.apply(entry.getKey()))) {
+                    return false;
+                }
+            }
+        }
+
+        return pointer == null || this.acceptsPayload(payload);
+    }
+
+    private boolean acceptsPayload(byte[] payload) {
+        try (JsonParser parser = JsonPointers.JSON_FACTORY.createParser(payload)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || !JsonPointers.seek(parser, token, pointer)) {
+                return false;
+            }
+
+            token = parser.currentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return false;
+            }
+
+            if (value == null) {
+                return true;
+            }
+
+            // containers have no scalar text to compare
+            return token.isScalarValue() && value.equals(parser.getText());
+        } catch (IOException e) {
+            // not JSON, or not the expected document
+            return false;
+        }
+    }
+}
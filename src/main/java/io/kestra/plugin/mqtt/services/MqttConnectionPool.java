@@ -0,0 +1,287 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.mqtt.AbstractMqttConnection;
+
+/**
+ * Worker-wide pool of connected clients, so tasks publishing every few seconds don't pay for a TCP and TLS
+ * handshake and an MQTT CONNECT each time.
+ * <p>
+ * Clients are keyed by everything that makes a connection: version, server, client identifier, credentials,
+ * TLS material and the task tuning. A pooled client is shared by every run holding a lease on it, which is
+ * harmless as two connections with the same client identifier would otherwise take over one another on the
+ * broker. A client is checked before being handed out and replaced when it lost its connection, and is closed
+ * once it has not been leased for its idle timeout.
+ * <p>
+ * Leases only publish: a client has a single message listener and disconnect handler, which concurrent
+ * subscriptions would take over from one another.
+ */
+final class MqttConnectionPool {
+    static final MqttConnectionPool INSTANCE = new MqttConnectionPool();
+
+    private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(30);
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    private ScheduledExecutorService evictor;
+
+    private MqttConnectionPool() {
+    }
+
+    interface Opener {
+        MqttInterface open() throws Exception;
+    }
+
+    record Key(
+        AbstractMqttConnection.Version version,
+        String server,
+        String clientId,
+        String authMethod,
+        String username,
+        String password,
+        String crt,
+        Duration connectionTimeout,
+        Boolean httpsHostnameVerificationEnabled,
+        Persistence persistence,
+        String persistenceDirectory,
+        ConnectOptions options
+    ) {
+        /**
+         * Secrets are only kept hashed in the key, it is compared and never used to connect.
+         */
+        static Key of(RunContext runContext, AbstractMqttConnection connection, AbstractMqttConnection.Version version, ConnectOptions options) throws Exception {
+            return new Key(
+                version,
+                runContext.render(connection.getServer()).as(String.class).orElse(null),
+                options.clientId(runContext.render(connection.getClientId()).as(String.class).orElse(null)),
+                runContext.render(connection.getAuthMethod()).as(String.class).orElse(null),
+                runContext.render(connection.getUsername()).as(String.class).orElse(null),
+                sha256(runContext.render(connection.getPassword()).as(String.class).orElse(null)),
+                sha256(runContext.render(connection.getCrt()).as(String.class).orElse(null)),
+                runContext.render(connection.getConnectionTimeout()).as(Duration.class).orElse(null),
+                runContext.render(connection.getHttpsHostnameVerificationEnabled()).as(Boolean.class).orElse(null),
+                runContext.render(connection.getPersistence()).as(Persistence.class).orElse(null),
+                runContext.render(connection.getPersistenceDirectory()).as(String.class).orElse(null),
+                options
+            );
+        }
+
+        private static String sha256(String value) throws NoSuchAlgorithmException {
+            if (value == null) {
+                return null;
+            }
+
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static class Entry {
+        final MqttInterface connection;
+        int leases;
+        long idleSince;
+        Duration idleTimeout;
+
+        Entry(MqttInterface connection) {
+            this.connection = connection;
+        }
+    }
+
+    MqttInterface lease(RunContext runContext, Key key, Duration idleTimeout, Opener opener) throws Exception {
+        Entry entry;
+        MqttInterface stale = null;
+
+        synchronized (this) {
+            entry = entries.get(key);
+
+            if (entry != null && !entry.connection.isConnected()) {
+                entries.remove(key);
+                if (entry.leases == 0) {
+                    stale = entry.connection;
+                }
+                entry = null;
+            }
+
+            if (entry != null) {
+                entry.leases++;
+                entry.idleTimeout = idleTimeout;
+            }
+        }
+
+        close(runContext, stale);
+
+        if (entry != null) {
+            runContext.metric(Counter.of("pool.hits", 1));
+            return new Lease(key, entry);
+        }
+
+        runContext.metric(Counter.of("pool.misses", 1));
+
+        MqttInterface opened = opener.open();
+
+        synchronized (this) {
+            entry = entries.get(key);
+
+            if (entry == null) {
+                entry = new Entry(opened);
+                entries.put(key, entry);
+                opened = null;
+            }
+
+            entry.leases++;
+            entry.idleTimeout = idleTimeout;
+
+            this.startEvictor();
+        }
+
+        // another run opened the same connection in the meantime
+        close(runContext, opened);
+
+        return new Lease(key, entry);
+    }
+
+    private void release(Key key, Entry entry) {
+        boolean detached;
+
+        synchronized (this) {
+            entry.leases--;
+            entry.idleSince = System.nanoTime();
+
+            // replaced after losing its connection while still leased, the last run holding it closes it
+            detached = entry.leases == 0 && entries.get(key) != entry;
+        }
+
+        if (detached) {
+            close(null, entry.connection);
+        }
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("mqtt-pool-evictor").daemon().factory());
+        evictor.scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL.toMillis(), EVICTION_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void evict() {
+        List<MqttInterface> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            entries.entrySet().removeIf(e -> {
+                Entry entry = e.getValue();
+                boolean expired = entry.leases == 0 &&
+                    (now - entry.idleSince >= entry.idleTimeout.toNanos() || !entry.connection.isConnected());
+
+                if (expired) {
+                    evicted.add(entry.connection);
+                }
+
+                return expired;
+            });
+        }
+
+        evicted.forEach(connection -> close(null, connection));
+    }
+
+    private static void close(RunContext runContext, MqttInterface connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.close();
+        } catch (Exception e) {
+            if (runContext != null) {
+                runContext.logger().debug("Error while closing pooled connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A run's hold on a pooled client, tracking its own in-flight publishes; closing it gives the client back.
+     */
+    private class Lease implements MqttInterface {
+        private final Key key;
+        private final Entry entry;
+        private final InFlightWindow window;
+        private boolean released;
+
+        Lease(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.window = entry.connection.window().lease();
+        }
+
+        @Override
+        public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory, ConnectOptions options) {
+            throw new IllegalStateException("A pooled connection is already connected");
+        }
+
+        @Override
+        public InFlightWindow window() {
+            return window;
+        }
+
+        @Override
+        public void publish(PublishPlan plan, byte[] message, InFlightWindow window) throws Exception {
+            entry.connection.publish(plan, message, window);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return entry.connection.isConnected();
+        }
+
+        @Override
+        public boolean isSessionPresent() {
+            return entry.connection.isSessionPresent();
+        }
+
+        @Override
+        public void subscribe(RunContext runContext, SubscribePlan plan, Consumer<Message> consumer) {
+            throw new IllegalStateException("A pooled connection can only publish");
+        }
+
+        @Override
+        public void unsubscribe(RunContext runContext, SubscribePlan plan) {
+            throw new IllegalStateException("A pooled connection can only publish");
+        }
+
+        @Override
+        public void acknowledge(Message message) throws Exception {
+            entry.connection.acknowledge(message);
+        }
+
+        @Override
+        public void onDisconnected(Consumer<Throwable> handler) {
+            entry.connection.onDisconnected(handler);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release(key, entry);
+            }
+        }
+    }
+}
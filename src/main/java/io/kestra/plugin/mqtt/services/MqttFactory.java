@@ -8,47 +8,125 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.net.ssl.SSLSocketFactory;
 
+import io.kestra.core.models.executions.metrics.Timer;
 import io.kestra.core.runners.RunContext;
 import io.kestra.core.storages.StorageContext;
 import io.kestra.plugin.mqtt.AbstractMqttConnection;
 import io.kestra.plugin.mqtt.MqttConnectionInterface;
 
 public abstract class MqttFactory {
-
     private MqttFactory() {
         // utility class
     }
 
     public static MqttInterface create(RunContext runContext, MqttConnectionInterface connection) throws Exception {
-        var sslSocketFactory = resolveSSLSocketFactory(runContext, connection);
+        return create(runContext, connection, ConnectOptions.DEFAULT);
+    }
+
+    public static MqttInterface create(RunContext runContext, MqttConnectionInterface connection, ConnectOptions options) throws Exception {
+        return create(runContext, connection, options, null);
+    }
 
+    /**
+     * @param poolIdleTimeout how long the connection is kept in the worker-wide pool once unused, {@code null} for
+     *                        a connection of its own; a pooled connection can only publish
+     */
+    private static MqttInterface create(RunContext runContext, MqttConnectionInterface connection, ConnectOptions options, Duration poolIdleTimeout) throws Exception {
         var version = runContext.render(connection.getMqttVersion()).as(AbstractMqttConnection.Version.class).orElseThrow();
-        if (version == AbstractMqttConnection.Version.V5) {
-            var service = new MqttV5Service();
-            service.connect(runContext, (AbstractMqttConnection) connection, sslSocketFactory);
-            return service;
-        } else {
-            var service = new MqttV3Service();
-            service.connect(runContext, (AbstractMqttConnection) connection, sslSocketFactory);
-            return service;
+
+        if (poolIdleTimeout != null) {
+            return MqttConnectionPool.INSTANCE.lease(
+                runContext,
+                MqttConnectionPool.Key.of(runContext, (AbstractMqttConnection) connection, version, options),
+                poolIdleTimeout,
+                () -> connect(runContext, connection, version, options)
+            );
+        }
+
+        return connect(runContext, connection, version, options);
+    }
+
+    private static MqttInterface connect(RunContext runContext, MqttConnectionInterface connection, AbstractMqttConnection.Version version, ConnectOptions options) throws Exception {
+        long startTime = System.nanoTime();
+        var resolved = resolveSSLSocketFactory(runContext, connection);
+
+        MqttInterface service = version == AbstractMqttConnection.Version.V5 ? new MqttV5Service() : new MqttV3Service();
+        service.connect(runContext, (AbstractMqttConnection) connection, resolved.sslSocketFactory(), options);
+
+        runContext.metric(Timer.of(
+            "connect",
+            Duration.ofNanos(System.nanoTime() - startTime),
+            "tls", resolved.sslSocketFactory() == null ? "none" : resolved.cached() ? "cached" : "new"
+        ));
+
+        return service;
+    }
+
+    /**
+     * Opens {@code count} connections for the same task. As a broker only accepts one connection per client
+     * identifier, each of them gets its index appended to the configured one when there are several.
+     *
+     * @param poolIdleTimeout how long the connections are kept in the worker-wide pool once unused, {@code null}
+     *                        for connections of their own; pooled connections can only publish
+     */
+    public static List<MqttInterface> create(RunContext runContext, MqttConnectionInterface connection, ConnectOptions options, int count, Duration poolIdleTimeout) throws Exception {
+        if (count == 1) {
+            return List.of(create(runContext, connection, options, poolIdleTimeout));
+        }
+
+        List<MqttInterface> connections = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                connections.add(create(runContext, connection, options.withClientIdSuffix("-" + i), poolIdleTimeout));
+            }
+        } catch (Exception e) {
+            for (MqttInterface opened : connections) {
+                try {
+                    opened.close();
+                } catch (Exception closing) {
+                    e.addSuppressed(closing);
+                }
+            }
+            throw e;
         }
+
+        return connections;
+    }
+
+    record ResolvedSSLSocketFactory(SSLSocketFactory sslSocketFactory, boolean cached) {
+        static final ResolvedSSLSocketFactory NONE = new ResolvedSSLSocketFactory(null, false);
     }
 
-    private static SSLSocketFactory resolveSSLSocketFactory(RunContext runContext, MqttConnectionInterface connection) throws Exception {
+    /**
+     * Reads the certificate on every call, so an internal storage file is only read with the access of the current
+     * run, and finds the socket factory trusting it by its content.
+     */
+    static ResolvedSSLSocketFactory resolveSSLSocketFactory(RunContext runContext, MqttConnectionInterface connection) throws Exception {
         if (connection.getCrt() == null) {
-            return null;
+            return ResolvedSSLSocketFactory.NONE;
         }
 
         var rCrt = runContext.render(connection.getCrt()).as(String.class).orElse(null);
         if (rCrt == null || rCrt.isBlank()) {
-            return null;
+            return ResolvedSSLSocketFactory.NONE;
         }
 
         try (var inputStream = resolveInputStream(runContext, rCrt)) {
-            return CustomSSLSocketFactory.createSSLSocketFactory(inputStream);
+            byte[] certificate = inputStream.readAllBytes();
+            String key = CustomSSLSocketFactory.key(certificate);
+
+            var cached = CustomSSLSocketFactory.cached(key);
+            if (cached != null) {
+                return new ResolvedSSLSocketFactory(cached, true);
+            }
+
+            return new ResolvedSSLSocketFactory(CustomSSLSocketFactory.cache(key, certificate), false);
         } catch (GeneralSecurityException e) {
             throw new IllegalArgumentException(
                 "Failed to load CA certificate: the provided certificate content is invalid. " +
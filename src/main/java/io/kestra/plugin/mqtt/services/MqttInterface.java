@@ -6,18 +6,54 @@ import javax.net.ssl.SSLSocketFactory;
 
 import io.kestra.core.runners.RunContext;
 import io.kestra.plugin.mqtt.AbstractMqttConnection;
-import io.kestra.plugin.mqtt.Publish;
-import io.kestra.plugin.mqtt.Subscribe;
-
-public interface MqttInterface {
-    void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory) throws Exception;
-
-    void publish(RunContext runContext, Publish publish, byte[] message) throws Exception;
-
-    void subscribe(RunContext runContext, Subscribe subscribe, Consumer<Message> consumer) throws Exception;
-
-    void unsubscribe(RunContext runContext, Subscribe subscribe) throws Exception;
 
+public interface MqttInterface extends AutoCloseable {
+    void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory, ConnectOptions options) throws Exception;
+
+    /**
+     * The window bounding the publishes of this connection to {@link ConnectOptions#getMaxInFlight()}.
+     */
+    InFlightWindow window();
+
+    /**
+     * Hands the message to the client without waiting for its acknowledgement, blocking only while the
+     * window is full.
+     */
+    void publish(PublishPlan plan, byte[] message, InFlightWindow window) throws Exception;
+
+    default void publish(PublishPlan plan, byte[] message) throws Exception {
+        this.publish(plan, message, this.window());
+    }
+
+    /**
+     * Waits for every in-flight publish to complete, throwing if any of them failed.
+     */
+    default void flush() throws Exception {
+        this.window().await();
+    }
+
+    boolean isConnected();
+
+    /**
+     * Whether the broker resumed a session kept from an earlier connection, along with its subscriptions.
+     */
+    boolean isSessionPresent();
+
+    /**
+     * Subscribes to the plan topics, unless the broker resumed a session already holding them. Messages the
+     * resumed session queued while disconnected are passed to the consumer too.
+     */
+    void subscribe(RunContext runContext, SubscribePlan plan, Consumer<Message> consumer) throws Exception;
+
+    void unsubscribe(RunContext runContext, SubscribePlan plan) throws Exception;
+
+    /**
+     * Acknowledges a received message to the broker, on a connection opened with
+     * {@link ConnectOptions#isManualAcks()}.
+     */
+    void acknowledge(Message message) throws Exception;
+
+    @Override
     void close() throws Exception;
 
     void onDisconnected(final Consumer<Throwable> handler);
@@ -1,35 +1,54 @@
 package io.kestra.plugin.mqtt.services;
 
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.function.Consumer;
 
 import javax.net.ssl.SSLSocketFactory;
 
 import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
-
-import com.google.common.primitives.Ints;
 
 import io.kestra.core.runners.RunContext;
 import io.kestra.plugin.mqtt.AbstractMqttConnection;
-import io.kestra.plugin.mqtt.Publish;
-import io.kestra.plugin.mqtt.Subscribe;
 
 public class MqttV3Service implements MqttInterface {
+    // Paho's own MqttConnectOptions.MAX_INFLIGHT_DEFAULT
+    private static final int PAHO_MAX_INFLIGHT = 10;
+
     MqttAsyncClient client;
 
+    InFlightWindow window;
+
+    boolean sessionPresent;
+
+    private final SessionListener<MqttMessage> sessionListener = new SessionListener<>();
+
+    private volatile Consumer<Throwable> disconnectedHandler;
+
+    private boolean manualAcks;
+
+    private Reconnector reconnector;
+
+    /**
+     * Subscribes again with the same listeners, after reconnecting without a session, {@code null} when not subscribed.
+     */
+    private volatile Resubscription resubscription;
+
+    private interface Resubscription {
+        IMqttToken subscribe() throws MqttException;
+    }
+
     @Override
-    public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory) throws Exception {
+    public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory, ConnectOptions options) throws Exception {
         try {
             client = new MqttAsyncClient(
                 runContext.render(connection.getServer()).as(String.class).orElseThrow(),
-                runContext.render(connection.getClientId()).as(String.class).orElseThrow(),
-                new MemoryPersistence()
+                options.clientId(runContext.render(connection.getClientId()).as(String.class).orElseThrow()),
+                Persistence.of(runContext, connection).v3(Persistence.directory(runContext, connection))
             );
 
             var connectOptions = new org.eclipse.paho.client.mqttv3.MqttConnectOptions();
+            connectOptions.setMaxInflight(Math.max(PAHO_MAX_INFLIGHT, options.getMaxInFlight()));
 
             if (connection.getConnectionTimeout() != null) {
                 connectOptions.setConnectionTimeout((int) runContext.render(connection.getConnectionTimeout()).as(Duration.class).orElseThrow().toSeconds());
@@ -51,46 +70,145 @@ public class MqttV3Service implements MqttInterface {
                 connectOptions.setHttpsHostnameVerificationEnabled(runContext.render(connection.getHttpsHostnameVerificationEnabled()).as(Boolean.class).orElseThrow());
             }
 
+            connectOptions.setCleanSession(options.isCleanStart());
+            manualAcks = options.isManualAcks();
+            client.setManualAcks(manualAcks);
+
+            if (options.getReconnect() != null) {
+                reconnector = new Reconnector(runContext, options.getReconnect());
+            }
+
+            client.setCallback(new MqttCallback() {
+                @Override
+                public void connectionLost(Throwable cause) {
+                    if (reconnector != null) {
+                        reconnector.start(cause, () -> reconnect(connectOptions), MqttV3Service.this::disconnected);
+                    } else {
+                        disconnected(cause);
+                    }
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) throws Exception {
+                    sessionListener.messageArrived(topic, message);
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken token) {
+
+                }
+            });
+
             var connect = client.connect(connectOptions);
             connect.waitForCompletion();
+
+            sessionPresent = connect.getSessionPresent();
+
+            window = new InFlightWindow(options.getMaxInFlight());
         } catch (MqttException e) {
             throw new Exception(e.getMessage(), e);
         }
     }
 
+    private void reconnect(MqttConnectOptions connectOptions) throws MqttException {
+        IMqttToken connect = client.connect(connectOptions);
+        connect.waitForCompletion();
+
+        sessionPresent = connect.getSessionPresent();
+
+        Resubscription current = resubscription;
+        if (!sessionPresent && current != null) {
+            current.subscribe().waitForCompletion();
+        }
+    }
+
+    private void disconnected(Throwable cause) {
+        Consumer<Throwable> handler = disconnectedHandler;
+        if (handler != null) {
+            handler.accept(cause);
+        }
+    }
+
     @SuppressWarnings("DuplicatedCode")
     @Override
-    public void publish(RunContext runContext, Publish publish, byte[] message) throws Exception {
+    public void publish(PublishPlan plan, byte[] message, InFlightWindow window) throws Exception {
         MqttMessage mqttMessage = new MqttMessage();
 
         mqttMessage.setPayload(message);
-        mqttMessage.setRetained(runContext.render(publish.getRetain()).as(Boolean.class).orElseThrow());
-        mqttMessage.setQos(runContext.render(publish.getQos()).as(Integer.class).orElseThrow());
+        mqttMessage.setRetained(plan.isRetain());
+        mqttMessage.setQos(plan.getQos());
 
+        window.acquire();
         try {
-            IMqttToken token = client.publish(runContext.render(publish.getTopic()).as(String.class).orElseThrow(), mqttMessage);
-            token.waitForCompletion();
+            client.publish(plan.getTopic(), mqttMessage, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    window.complete();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    window.fail(exception);
+                }
+            });
         } catch (MqttException e) {
+            window.complete();
             throw new Exception(e.getMessage(), e);
         }
     }
 
     @Override
-    public void subscribe(RunContext runContext, Subscribe subscribe, Consumer<Message> consumer) throws Exception {
-        String[] topics = subscribe.topics(runContext);
+    public InFlightWindow window() {
+        return window;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    @Override
+    public boolean isSessionPresent() {
+        return sessionPresent;
+    }
+
+    @Override
+    public void subscribe(RunContext runContext, SubscribePlan plan, Consumer<Message> consumer) throws Exception {
+        String[] topics = plan.getTopics();
 
         IMqttMessageListener messageListener = (topic, message) ->
         {
+            Message received;
             try {
-                consumer.accept(
-                    Message.builder()
-                        .topic(topic)
-                        .id(message.getId())
-                        .qos(message.getQos())
-                        .payload(runContext.render(subscribe.getSerdeType()).as(SerdeType.class).orElseThrow().deserialize(message.getPayload()))
-                        .retain(message.isRetained())
-                        .build()
+                // MQTT 3.1.1 has no user property to mark the compression, the one of the subscription applies
+                byte[] payload = plan.decompress(message.getPayload(), null);
+
+                if (!plan.accepts(topic, payload, key -> null)) {
+                    this.skip(message);
+                    return;
+                }
+
+                received = Message.builder()
+                    .topic(topic)
+                    .id(message.getId())
+                    .qos(message.getQos())
+                    .payload(plan.decode(topic, payload))
+                    .retain(message.isRetained())
+                    .build();
+            } catch (Exception e) {
+                // thrown back to Paho, it would drop the connection for a single malformed message
+                runContext.logger().warn(
+                    "Skipping message {id: {}} from topic '{}' that cannot be decoded. Cause: {}",
+                    message.getId(),
+                    topic,
+                    e.getMessage()
                 );
+                this.skip(message);
+                return;
+            }
+
+            try {
+                consumer.accept(received);
             } catch (Exception e) {
                 runContext.logger().error(
                     "Cannot process message {id: {}} from topic '{}'. Cause: {}",
@@ -102,50 +220,76 @@ public class MqttV3Service implements MqttInterface {
             }
         };
 
+        sessionListener.set(messageListener::messageArrived);
+
         IMqttMessageListener[] listeners = new IMqttMessageListener[topics.length];
         Arrays.fill(listeners, messageListener);
 
-        ArrayList<Integer> qos = new ArrayList<>();
-        for (int i = 0; i < topics.length; i++) {
-            qos.add(runContext.render(subscribe.getQos()).as(Integer.class).orElseThrow());
+        int[] qos = new int[topics.length];
+        Arrays.fill(qos, plan.getQos());
+
+        resubscription = () -> client.subscribe(topics, qos, listeners);
+
+        if (!sessionPresent) {
+            resubscription.subscribe();
         }
+    }
 
-        client.subscribe(topics, Ints.toArray(qos), listeners);
+    private void skip(MqttMessage message) throws MqttException {
+        if (manualAcks) {
+            client.messageArrivedComplete(message.getId(), message.getQos());
+        }
     }
 
     @Override
-    public void unsubscribe(RunContext runContext, Subscribe subscribe) throws Exception {
-        IMqttToken unsubscribe = client.unsubscribe(subscribe.topics(runContext));
+    public void unsubscribe(RunContext runContext, SubscribePlan plan) throws Exception {
+        resubscription = null;
+        sessionListener.clear();
+
+        IMqttToken unsubscribe = client.unsubscribe(plan.getTopics());
         unsubscribe.waitForCompletion();
     }
 
     @Override
-    public void onDisconnected(final Consumer<Throwable> handler) {
-        client.setCallback(new MqttCallback() {
-            @Override
-            public void connectionLost(Throwable cause) {
-                handler.accept(cause);
-            }
-
-            @Override
-            public void messageArrived(String topic, MqttMessage message) {
-
-            }
-
-            @Override
-            public void deliveryComplete(IMqttDeliveryToken token) {
+    public void acknowledge(Message message) throws Exception {
+        try {
+            client.messageArrivedComplete(message.getId(), message.getQos());
+        } catch (MqttException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+    }
 
-            }
-        });
+    @Override
+    public void onDisconnected(final Consumer<Throwable> handler) {
+        this.disconnectedHandler = handler;
     }
 
     @Override
     public void close() throws Exception {
+        if (reconnector != null) {
+            reconnector.close();
+        }
+
+        MqttException failure = null;
         try {
             this.client.disconnect();
-            this.client.close();
         } catch (MqttException e) {
-            throw new Exception(e.getMessage(), e);
+            failure = e;
+        }
+
+        try {
+            // forced when it couldn't disconnect, e.g. while reconnecting, so the client never outlives its task
+            this.client.close(failure != null);
+        } catch (MqttException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null) {
+            throw new Exception(failure.getMessage(), failure);
         }
     }
 }
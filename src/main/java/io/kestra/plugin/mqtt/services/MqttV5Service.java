@@ -2,45 +2,75 @@ package io.kestra.plugin.mqtt.services;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.function.Consumer;
 
 import javax.net.ssl.SSLSocketFactory;
 
+import org.eclipse.paho.mqttv5.client.IMqttMessageListener;
 import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttActionListener;
 import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
 import org.eclipse.paho.mqttv5.client.MqttCallback;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
 import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse;
-import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
 import org.eclipse.paho.mqttv5.common.MqttException;
 import org.eclipse.paho.mqttv5.common.MqttMessage;
 import org.eclipse.paho.mqttv5.common.MqttSubscription;
 import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.eclipse.paho.mqttv5.common.packet.UserProperty;
 
 import io.kestra.core.runners.RunContext;
 import io.kestra.plugin.mqtt.AbstractMqttConnection;
-import io.kestra.plugin.mqtt.Publish;
-import io.kestra.plugin.mqtt.Subscribe;
 
 public class MqttV5Service implements MqttInterface {
     MqttAsyncClient client;
 
+    InFlightWindow window;
+
+    boolean sessionPresent;
+
+    private final SessionListener<MqttMessage> sessionListener = new SessionListener<>();
+
+    private volatile Consumer<Throwable> disconnectedHandler;
+
+    private boolean manualAcks;
+
+    private boolean subscriptionIdentifiers;
+
+    private Reconnector reconnector;
+
+    /**
+     * Subscribes again with the same listener, after reconnecting without a session, {@code null} when not subscribed.
+     */
+    private volatile Resubscription resubscription;
+
+    private interface Resubscription {
+        IMqttToken subscribe() throws MqttException;
+    }
+
     @Override
-    public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory) throws Exception {
+    public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory, ConnectOptions options) throws Exception {
         try {
             client = new MqttAsyncClient(
                 runContext.render(connection.getServer()).as(String.class).orElse(null),
-                runContext.render(connection.getClientId()).as(String.class).orElse(null),
-                new MemoryPersistence()
+                options.clientId(runContext.render(connection.getClientId()).as(String.class).orElse(null)),
+                Persistence.of(runContext, connection).v5(Persistence.directory(runContext, connection))
             );
 
-            var connectOptions = new org.eclipse.paho.mqttv5.client.MqttConnectionOptions();
+            var connectOptions = new MqttConnectionOptions();
 
             if (connection.getConnectionTimeout() != null) {
                 connectOptions.setConnectionTimeout((int) runContext.render(connection.getConnectionTimeout()).as(Duration.class).orElseThrow().toSeconds());
             }
 
+            if (options.getReceiveMaximum() != null) {
+                connectOptions.setReceiveMaximum(options.getReceiveMaximum());
+            }
+
             if (connection.getAuthMethod() != null) {
                 connectOptions.setAuthMethod(runContext.render(connection.getAuthMethod()).as(String.class).orElseThrow());
             }
@@ -61,77 +91,194 @@ public class MqttV5Service implements MqttInterface {
                 connectOptions.setHttpsHostnameVerificationEnabled(runContext.render(connection.getHttpsHostnameVerificationEnabled()).as(Boolean.class).orElseThrow());
             }
 
+            connectOptions.setCleanStart(options.isCleanStart());
+            if (options.getSessionExpiryInterval() != null) {
+                connectOptions.setSessionExpiryInterval(options.getSessionExpiryInterval());
+            }
+            manualAcks = options.isManualAcks();
+            client.setManualAcks(manualAcks);
+
+            if (options.getReconnect() != null) {
+                reconnector = new Reconnector(runContext, options.getReconnect());
+            }
+
+            client.setCallback(new MqttCallback() {
+                @Override
+                public void disconnected(MqttDisconnectResponse disconnectResponse) {
+                    Throwable cause = disconnectResponse.getException() == null ? null : disconnectResponse.getException().getCause();
+
+                    if (reconnector != null) {
+                        reconnector.start(cause, () -> reconnect(connectOptions), MqttV5Service.this::disconnected);
+                    } else {
+                        disconnected(cause);
+                    }
+                }
+
+                @Override
+                public void mqttErrorOccurred(MqttException exception) {
+
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) throws Exception {
+                    sessionListener.messageArrived(topic, message);
+                }
+
+                @Override
+                public void deliveryComplete(IMqttToken token) {
+
+                }
+
+                @Override
+                public void connectComplete(boolean reconnect, String serverURI) {
+
+                }
+
+                @Override
+                public void authPacketArrived(int reasonCode, MqttProperties properties) {
+
+                }
+            });
+
             var connect = client.connect(connectOptions);
             connect.waitForCompletion();
+
+            sessionPresent = connect.getSessionPresent();
+
+            // a missing property means the broker supports them
+            Boolean identifiersAvailable = connect.getResponseProperties() == null ? null : connect.getResponseProperties().isSubscriptionIdentifiersAvailable();
+            subscriptionIdentifiers = !Boolean.FALSE.equals(identifiersAvailable);
+
+            // Paho rejects a publish beyond the receive maximum the broker announced in its CONNACK
+            Integer receiveMaximum = connect.getResponseProperties() == null ? null : connect.getResponseProperties().getReceiveMaximum();
+            window = new InFlightWindow(receiveMaximum == null ? options.getMaxInFlight() : Math.min(options.getMaxInFlight(), receiveMaximum));
         } catch (MqttException e) {
             throw new Exception(e.getMessage(), e);
         }
     }
 
+    private void reconnect(MqttConnectionOptions connectOptions) throws MqttException {
+        IMqttToken connect = client.connect(connectOptions);
+        connect.waitForCompletion();
+
+        sessionPresent = connect.getSessionPresent();
+
+        Resubscription current = resubscription;
+        if (!sessionPresent && current != null) {
+            current.subscribe().waitForCompletion();
+        }
+    }
+
+    private void disconnected(Throwable cause) {
+        Consumer<Throwable> handler = disconnectedHandler;
+        if (handler != null) {
+            handler.accept(cause);
+        }
+    }
+
     @Override
-    public void publish(RunContext runContext, Publish publish, byte[] message) throws Exception {
+    public void publish(PublishPlan plan, byte[] message, InFlightWindow window) throws Exception {
         MqttMessage mqttMessage = new MqttMessage();
 
         mqttMessage.setPayload(message);
-        mqttMessage.setRetained(runContext.render(publish.getRetain()).as(Boolean.class).orElseThrow());
-        mqttMessage.setQos(runContext.render(publish.getQos()).as(Integer.class).orElseThrow());
+        mqttMessage.setRetained(plan.isRetain());
+        mqttMessage.setQos(plan.getQos());
 
-        String responseTopic = publish.getResponseTopic() == null ? null :
-            runContext.render(publish.getResponseTopic()).as(String.class).orElse(null);
-
-        String correlationData = publish.getCorrelationData() == null ? null :
-            runContext.render(publish.getCorrelationData()).as(String.class).orElse(null);
-
-        if (responseTopic != null || correlationData != null) {
+        if (plan.hasProperties()) {
             MqttProperties properties = new MqttProperties();
 
-            if (responseTopic != null) {
-                properties.setResponseTopic(responseTopic);
+            if (plan.getResponseTopic() != null) {
+                properties.setResponseTopic(plan.getResponseTopic());
+            }
+
+            if (plan.getCorrelationData() != null) {
+                properties.setCorrelationData(plan.getCorrelationData());
             }
 
-            if (correlationData != null) {
-                properties.setCorrelationData(decodeCorrelationData(correlationData));
+            if (plan.getCompression() != Compression.NONE) {
+                properties.setUserProperties(List.of(new UserProperty(Compression.USER_PROPERTY, plan.getCompression().encoding())));
             }
 
             mqttMessage.setProperties(properties);
         }
 
+        window.acquire();
         try {
-            IMqttToken token = client.publish(runContext.render(publish.getTopic()).as(String.class).orElseThrow(), mqttMessage);
-            token.waitForCompletion();
+            client.publish(plan.getTopic(), mqttMessage, null, new MqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    window.complete();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    window.fail(exception);
+                }
+            });
         } catch (MqttException e) {
+            window.complete();
             throw new Exception(e.getMessage(), e);
         }
     }
 
     @Override
-    public void subscribe(RunContext runContext, Subscribe subscribe, Consumer<Message> consumer) throws Exception {
-        String[] topics = subscribe.topics(runContext);
-        MqttSubscription[] subscriptions = new MqttSubscription[topics.length];
+    public InFlightWindow window() {
+        return window;
+    }
 
-        //workaround for https://github.com/eclipse/paho.mqtt.java/issues/826
-        final MqttProperties props = new MqttProperties();
-        props.setSubscriptionIdentifiers(List.of(0));
+    @Override
+    public boolean isConnected() {
+        return client.isConnected();
+    }
 
-        for (int i = 0; i < topics.length; i++) {
-            subscriptions[i] = new MqttSubscription(topics[i], runContext.render(subscribe.getQos()).as(Integer.class).orElseThrow());
-        }
+    @Override
+    public boolean isSessionPresent() {
+        return sessionPresent;
+    }
+
+    @Override
+    public void subscribe(RunContext runContext, SubscribePlan plan, Consumer<Message> consumer) throws Exception {
+        // filters with their own serde are subscribed in one SUBSCRIBE per serde, tagged with its identifier
+        final boolean identified = plan.isRouted() && subscriptionIdentifiers;
 
-        client.subscribe(subscriptions, null, null, (topic, message) ->
+        IMqttMessageListener messageListener = (topic, message) ->
         {
+            Message received;
             try {
-                consumer.accept(
-                    Message.builder()
-                        .topic(topic)
-                        .id(message.getId())
-                        .qos(message.getQos())
-                        .payload(runContext.render(subscribe.getSerdeType()).as(SerdeType.class).orElseThrow().deserialize(message.getPayload()))
-                        .retain(message.isRetained())
-                        .properties(message.getProperties().getValidProperties())
-                        .responseTopic(message.getProperties().getResponseTopic())
-                        .correlationData(encodeCorrelationData(message.getProperties().getCorrelationData()))
-                        .build()
+                byte[] payload = plan.decompress(message.getPayload(), userProperty(message, Compression.USER_PROPERTY));
+
+                if (!plan.accepts(topic, payload, key -> userProperty(message, key))) {
+                    this.skip(message);
+                    return;
+                }
+
+                received = Message.builder()
+                    .topic(topic)
+                    .id(message.getId())
+                    .qos(message.getQos())
+                    .payload(identified ?
+                        plan.decode(topic, message.getProperties().getSubscriptionIdentifiers(), payload) :
+                        plan.decode(topic, payload)
+                    )
+                    .retain(message.isRetained())
+                    .properties(message.getProperties().getValidProperties())
+                    .responseTopic(message.getProperties().getResponseTopic())
+                    .correlationData(encodeCorrelationData(message.getProperties().getCorrelationData()))
+                    .build();
+            } catch (Exception e) {
+                // thrown back to Paho, it would drop the connection for a single malformed message
+                runContext.logger().warn(
+                    "Skipping message {id: {}} from topic '{}' that cannot be decoded. Cause: {}",
+                    message.getId(),
+                    topic,
+                    e.getMessage()
                 );
+                this.skip(message);
+                return;
+            }
+
+            try {
+                consumer.accept(received);
             } catch (Exception e) {
                 runContext.logger().error(
                     "Cannot process message {id: {}} from topic '{}'. Cause: {}",
@@ -141,77 +288,130 @@ public class MqttV5Service implements MqttInterface {
                 );
                 throw e;
             }
-        }, props);
+        };
+
+        sessionListener.set(messageListener::messageArrived);
+
+        resubscription = identified ?
+            () -> subscribeBySerdeType(plan, messageListener) :
+            () -> client.subscribe(subscriptions(plan, null), null, null, messageListener, subscriptionProperties(0));
+
+        if (!sessionPresent) {
+            resubscription.subscribe();
+        }
     }
 
-    /**
-     * Correlation data is binary on the wire, and a byte array is unusable in a flow expression, so
-     * it is surfaced as Base64. {@link MqttV5Service#decodeCorrelationData(String)} is its inverse,
-     * which is what lets a responder echo the value it received unchanged.
-     */
-    private static String encodeCorrelationData(byte[] correlationData) {
-        return correlationData == null ? null : Base64.getEncoder().encodeToString(correlationData);
+    private void skip(MqttMessage message) throws MqttException {
+        if (manualAcks) {
+            client.messageArrivedComplete(message.getId(), message.getQos());
+        }
     }
 
-    private static byte[] decodeCorrelationData(String correlationData) {
-        try {
-            return Base64.getDecoder().decode(correlationData);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException(
-                "The 'correlationData' property must be Base64-encoded, as it is binary on the wire: " + e.getMessage(),
-                e
+    private IMqttToken subscribeBySerdeType(SubscribePlan plan, IMqttMessageListener messageListener) throws MqttException {
+        IMqttToken last = null;
+        for (SerdeType serdeType : EnumSet.copyOf(List.of(plan.getTopicSerdeTypes()))) {
+            last = client.subscribe(
+                subscriptions(plan, serdeType),
+                null,
+                null,
+                messageListener,
+                subscriptionProperties(SubscribePlan.subscriptionIdentifier(serdeType))
             );
+            last.waitForCompletion();
         }
-    }
 
-    @Override
-    public void unsubscribe(RunContext runContext, Subscribe subscribe) throws Exception {
-        IMqttToken unsubscribe = client.unsubscribe(subscribe.topics(runContext));
-        unsubscribe.waitForCompletion();
+        return last;
     }
 
-    @Override
-    public void onDisconnected(final Consumer<Throwable> handler) {
-        client.setCallback(new MqttCallback() {
-            @Override
-            public void disconnected(MqttDisconnectResponse disconnectResponse) {
-                handler.accept(disconnectResponse.getException().getCause());
+    private static MqttSubscription[] subscriptions(SubscribePlan plan, SerdeType serdeType) {
+        String[] topics = plan.getTopics();
+        List<MqttSubscription> subscriptions = new ArrayList<>(topics.length);
+
+        for (int i = 0; i < topics.length; i++) {
+            if (serdeType == null || plan.getTopicSerdeTypes()[i] == serdeType) {
+                subscriptions.add(new MqttSubscription(topics[i], plan.getQos()));
             }
+        }
 
-            @Override
-            public void mqttErrorOccurred(MqttException exception) {
+        return subscriptions.toArray(MqttSubscription[]::new);
+    }
 
-            }
+    private static MqttProperties subscriptionProperties(int subscriptionIdentifier) {
+        // an identifier is always set, 0 meaning none, as a workaround for https://github.com/eclipse/paho.mqtt.java/issues/826
+        MqttProperties props = new MqttProperties();
+        props.setSubscriptionIdentifiers(List.of(subscriptionIdentifier));
 
-            @Override
-            public void messageArrived(String topic, MqttMessage message) throws Exception {
+        return props;
+    }
 
+    private static String userProperty(MqttMessage message, String key) {
+        for (UserProperty property : message.getProperties().getUserProperties()) {
+            if (property.getKey().equals(key)) {
+                return property.getValue();
             }
+        }
 
-            @Override
-            public void deliveryComplete(IMqttToken token) {
+        return null;
+    }
 
-            }
+    /**
+     * Correlation data is binary on the wire, and a byte array is unusable in a flow expression, so
+     * it is surfaced as Base64. {@link PublishPlan} decodes it back, which is what lets a responder
+     * echo the value it received unchanged.
+     */
+    private static String encodeCorrelationData(byte[] correlationData) {
+        return correlationData == null ? null : Base64.getEncoder().encodeToString(correlationData);
+    }
 
-            @Override
-            public void connectComplete(boolean reconnect, String serverURI) {
+    @Override
+    public void unsubscribe(RunContext runContext, SubscribePlan plan) throws Exception {
+        resubscription = null;
+        sessionListener.clear();
 
-            }
+        IMqttToken unsubscribe = client.unsubscribe(plan.getTopics());
+        unsubscribe.waitForCompletion();
+    }
 
-            @Override
-            public void authPacketArrived(int reasonCode, MqttProperties properties) {
+    @Override
+    public void acknowledge(Message message) throws Exception {
+        try {
+            client.messageArrivedComplete(message.getId(), message.getQos());
+        } catch (MqttException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+    }
 
-            }
-        });
+    @Override
+    public void onDisconnected(final Consumer<Throwable> handler) {
+        this.disconnectedHandler = handler;
     }
 
     @Override
     public void close() throws Exception {
+        if (reconnector != null) {
+            reconnector.close();
+        }
+
+        MqttException failure = null;
         try {
             this.client.disconnect();
-            this.client.close();
         } catch (MqttException e) {
-            throw new Exception(e.getMessage(), e);
+            failure = e;
+        }
+
+        try {
+            // forced when it couldn't disconnect, e.g. while reconnecting, so the client never outlives its task
+            this.client.close(failure != null);
+        } catch (MqttException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null) {
+            throw new Exception(failure.getMessage(), failure);
         }
     }
 }
@@ -0,0 +1,162 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import io.kestra.core.serializers.FileSerde;
+
+@io.swagger.v3.oas.annotations.media.Schema(
+    title = "Format of the files received messages are written to"
+)
+public enum OutputFormat {
+    /**
+     * One ION record per message, its payload decoded with the {@link SerdeType}.
+     */
+    ION("ion"),
+
+    /**
+     * One JSON object per line, the payload bytes copied as is as the {@code payload} field.
+     */
+    NDJSON("jsonl"),
+
+    /**
+     * One length-prefixed record per message, the payload bytes copied as is.
+     */
+    BINARY("bin");
+
+    private static final byte[] TOPIC = "{\"topic\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] QOS = "\",\"qos\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RETAINED = ",\"retain\":true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_RETAINED = ",\"retain\":false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESPONSE_TOPIC = ",\"responseTopic\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CORRELATION_DATA = ",\"correlationData\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAYLOAD = ",\"payload\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final int RETAIN_FLAG = 0x04;
+    private static final int RESPONSE_TOPIC_FLAG = 0x08;
+    private static final int CORRELATION_DATA_FLAG = 0x10;
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Whether the payloads must be kept as the bytes received rather than decoded.
+     */
+    public boolean isRaw() {
+        return this != ION;
+    }
+
+    public void write(OutputStream output, Message message) throws IOException {
+        switch (this) {
+            case ION -> FileSerde.write(output, message);
+            case NDJSON -> writeJson(output, message);
+            case BINARY -> writeBinary(output, message);
+        }
+    }
+
+    private static void writeJson(OutputStream output, Message message) throws IOException {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+
+        output.write(TOPIC);
+        output.write(encoder.quoteAsUTF8(message.getTopic()));
+        output.write(QOS);
+        output.write('0' + message.getQos());
+        output.write(Boolean.TRUE.equals(message.getRetain()) ? RETAINED : NOT_RETAINED);
+
+        if (message.getResponseTopic() != null) {
+            output.write(RESPONSE_TOPIC);
+            output.write(encoder.quoteAsUTF8(message.getResponseTopic()));
+            output.write('"');
+        }
+
+        if (message.getCorrelationData() != null) {
+            output.write(CORRELATION_DATA);
+            output.write(message.getCorrelationData().getBytes(StandardCharsets.US_ASCII));
+            output.write('"');
+        }
+
+        output.write(PAYLOAD);
+
+        byte[] payload = (byte[]) message.getPayload();
+        if (payload.length == 0) {
+            output.write(NULL);
+        } else {
+            // a line break can only be whitespace between JSON tokens, so it is replaced to keep one record per line
+            int from = 0;
+            for (int i = 0; i < payload.length; i++) {
+                if (payload[i] == '\n' || payload[i] == '\r') {
+                    output.write(payload, from, i - from);
+                    output.write(' ');
+                    from = i + 1;
+                }
+            }
+            output.write(payload, from, payload.length - from);
+        }
+
+        output.write(END);
+    }
+
+    /**
+     * Writes a one byte header, the QoS in its two lowest bits followed by the retain and optional field flags,
+     * then the topic and the optional response topic, each as a 2 bytes length and its UTF-8 bytes, the optional
+     * correlation data as a 2 bytes length and its raw bytes rather than their Base64 form, and finally the
+     * payload as a 4 bytes length and its bytes. Lengths are big-endian. MQTT bounds the topics and the
+     * correlation data to 65535 bytes, so they always fit their 2 bytes length.
+     */
+    private static void writeBinary(OutputStream output, Message message) throws IOException {
+        byte[] topic = message.getTopic().getBytes(StandardCharsets.UTF_8);
+        byte[] responseTopic = message.getResponseTopic() == null ? null : message.getResponseTopic().getBytes(StandardCharsets.UTF_8);
+        byte[] correlationData = message.getCorrelationData() == null ? null : Base64.getDecoder().decode(message.getCorrelationData());
+        byte[] payload = (byte[]) message.getPayload();
+
+        int header = message.getQos() & 0x03;
+        if (Boolean.TRUE.equals(message.getRetain())) {
+            header |= RETAIN_FLAG;
+        }
+        if (responseTopic != null) {
+            header |= RESPONSE_TOPIC_FLAG;
+        }
+        if (correlationData != null) {
+            header |= CORRELATION_DATA_FLAG;
+        }
+
+        output.write(header);
+        writeShortPrefixed(output, topic);
+        if (responseTopic != null) {
+            writeShortPrefixed(output, responseTopic);
+        }
+        if (correlationData != null) {
+            writeShortPrefixed(output, correlationData);
+        }
+
+        output.write(payload.length >>> 24);
+        output.write(payload.length >>> 16);
+        output.write(payload.length >>> 8);
+        output.write(payload.length);
+        output.write(payload);
+    }
+
+    private static void writeShortPrefixed(OutputStream output, byte[] value) throws IOException {
+        // a truncated length would make every later record of the file unreadable
+        if (value.length > 0xFFFF) {
+            throw new IOException("Cannot write a field of " + value.length + " bytes with a 2 bytes length");
+        }
+
+        output.write(value.length >>> 8);
+        output.write(value.length);
+        output.write(value);
+    }
+}
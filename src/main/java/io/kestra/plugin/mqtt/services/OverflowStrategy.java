@@ -0,0 +1,37 @@
+package io.kestra.plugin.mqtt.services;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+
+@io.swagger.v3.oas.annotations.media.Schema(
+    title = "What to do with a received message when the buffer is full"
+)
+public enum OverflowStrategy {
+    /**
+     * Stop receiving until the buffer has room, holding the broker back.
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest buffered message.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the message just received.
+     */
+    DROP_LATEST,
+
+    /**
+     * Fail the trigger.
+     */
+    ERROR;
+
+    public BufferOverflowStrategy bufferOverflowStrategy() {
+        return switch (this) {
+            case DROP_OLDEST -> BufferOverflowStrategy.DROP_OLDEST;
+            case DROP_LATEST -> BufferOverflowStrategy.DROP_LATEST;
+            case ERROR -> BufferOverflowStrategy.ERROR;
+            case BLOCK -> throw new IllegalStateException("A blocking buffer doesn't overflow");
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.nio.file.Path;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.mqtt.AbstractMqttConnection;
+
+@io.swagger.v3.oas.annotations.media.Schema(
+    title = "Where the client keeps the state of its QoS 1 and 2 messages in flight"
+)
+public enum Persistence {
+    /**
+     * Lost with the worker.
+     */
+    MEMORY,
+
+    /**
+     * Paho's file persistence, writing one file per message.
+     */
+    FILE,
+
+    /**
+     * A log of memory-mapped segment files, see {@link MappedSegmentLog}.
+     */
+    MAPPED;
+
+    static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "kestra-mqtt");
+
+    static Persistence of(RunContext runContext, AbstractMqttConnection connection) throws Exception {
+        return runContext.render(connection.getPersistence()).as(Persistence.class).orElse(MEMORY);
+    }
+
+    static Path directory(RunContext runContext, AbstractMqttConnection connection) throws Exception {
+        return runContext.render(connection.getPersistenceDirectory()).as(String.class).map(Path::of).orElse(DEFAULT_DIRECTORY);
+    }
+
+    org.eclipse.paho.client.mqttv3.MqttClientPersistence v3(Path directory) {
+        return switch (this) {
+            case MEMORY -> new org.eclipse.paho.client.mqttv3.persist.MemoryPersistence();
+            case FILE -> new org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence(directory.toString());
+            case MAPPED -> new MappedPersistenceV3(directory, MappedSegmentLog.DEFAULT_SEGMENT_SIZE);
+        };
+    }
+
+    org.eclipse.paho.mqttv5.client.MqttClientPersistence v5(Path directory) {
+        return switch (this) {
+            case MEMORY -> new org.eclipse.paho.mqttv5.client.persist.MemoryPersistence();
+            case FILE -> new org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence(directory.toString());
+            case MAPPED -> new MappedPersistenceV5(directory, MappedSegmentLog.DEFAULT_SEGMENT_SIZE);
+        };
+    }
+
+    /**
+     * The directory a client keeps its own state in, named after its identity as Paho's file persistence does.
+     */
+    static Path clientDirectory(Path directory, String name) {
+        return directory.resolve(name.replaceAll("[^a-zA-Z0-9._-]", "_"));
+    }
+}
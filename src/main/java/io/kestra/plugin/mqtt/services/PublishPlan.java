@@ -0,0 +1,171 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.mqtt.AbstractMqttConnection;
+import io.kestra.plugin.mqtt.Publish;
+import io.kestra.plugin.mqtt.services.codecs.PayloadCodec;
+import io.kestra.plugin.mqtt.services.codecs.PayloadCodecs;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * The {@link Publish} properties rendered once for a whole run, so publishing a row only costs its serialization.
+ */
+@Value
+@Builder
+@With
+public class PublishPlan {
+    String topic;
+
+    int qos;
+
+    boolean retain;
+
+    SerdeType serdeType;
+
+    /**
+     * MQTT 5 response topic, {@code null} when not set.
+     */
+    String responseTopic;
+
+    /**
+     * MQTT 5 correlation data, already decoded from its Base64 property value, {@code null} when not set.
+     */
+    byte[] correlationData;
+
+    PayloadCodec codec;
+
+    Compression compression;
+
+    /**
+     * Set when the topic has row placeholders, {@link #topic} then being the unresolved template.
+     */
+    TopicTemplate topicTemplate;
+
+    /**
+     * Dotted paths of the row fields overriding the run-wide values, {@code null} when not set.
+     */
+    String[] qosField;
+
+    String[] retainField;
+
+    String[] responseTopicField;
+
+    String[] correlationDataField;
+
+    public static PublishPlan of(RunContext runContext, Publish publish) throws Exception {
+        String rTopic = runContext.render(publish.getTopic()).as(String.class).orElseThrow();
+        SerdeType rSerdeType = runContext.render(publish.getSerdeType()).as(SerdeType.class).orElseThrow();
+        String rCodec = runContext.render(publish.getCodec()).as(String.class).orElse(null);
+
+        var builder = PublishPlan.builder()
+            .topic(rTopic)
+            .topicTemplate(TopicTemplate.isTemplate(rTopic) ? TopicTemplate.of(rTopic) : null)
+            .qosField(field(runContext, publish.getQosField()))
+            .retainField(field(runContext, publish.getRetainField()))
+            .qos(runContext.render(publish.getQos()).as(Integer.class).orElseThrow())
+            .retain(runContext.render(publish.getRetain()).as(Boolean.class).orElseThrow())
+            .serdeType(rSerdeType)
+            .codec(PayloadCodecs.create(
+                rCodec == null ? rSerdeType.name() : rCodec,
+                runContext,
+                runContext.render(publish.getCodecOptions()).asMap(String.class, Object.class)
+            ))
+            .compression(runContext.render(publish.getCompression()).as(Compression.class).orElse(Compression.NONE));
+
+        // MQTT 3.1.1 has no message properties, they are ignored rather than validated
+        var version = runContext.render(publish.getMqttVersion()).as(AbstractMqttConnection.Version.class).orElseThrow();
+        if (version == AbstractMqttConnection.Version.V5) {
+            builder
+                .responseTopic(runContext.render(publish.getResponseTopic()).as(String.class).orElse(null))
+                .correlationData(runContext.render(publish.getCorrelationData()).as(String.class).map(PublishPlan::decodeCorrelationData).orElse(null))
+                .responseTopicField(field(runContext, publish.getResponseTopicField()))
+                .correlationDataField(field(runContext, publish.getCorrelationDataField()));
+        }
+
+        return builder.build();
+    }
+
+    private static String[] field(RunContext runContext, Property<String> field) throws IllegalVariableEvaluationException {
+        return runContext.render(field).as(String.class)
+            .map(path -> path.split("\\."))
+            .orElse(null);
+    }
+
+    public boolean isRouted() {
+        return topicTemplate != null || qosField != null || retainField != null || responseTopicField != null || correlationDataField != null;
+    }
+
+    /**
+     * Resolves the topic, QoS, retain flag and MQTT 5 properties of a single row, falling back on the run-wide
+     * values for a field the row doesn't have.
+     */
+    public PublishPlan route(Object row) {
+        if (!this.isRouted()) {
+            return this;
+        }
+
+        if (!(row instanceof Map)) {
+            throw new IllegalArgumentException("Routing messages from row fields requires rows that are objects, got '" + row + "'");
+        }
+
+        PublishPlan routed = this;
+
+        if (topicTemplate != null) {
+            routed = routed.withTopic(topicTemplate.render(row));
+        }
+
+        Object rowQos = TopicTemplate.field(row, qosField);
+        if (rowQos != null) {
+            routed = routed.withQos(rowQos instanceof Number number ? number.intValue() : Integer.parseInt(rowQos.toString()));
+        }
+
+        Object rowRetain = TopicTemplate.field(row, retainField);
+        if (rowRetain != null) {
+            routed = routed.withRetain(Boolean.parseBoolean(rowRetain.toString()));
+        }
+
+        Object rowResponseTopic = TopicTemplate.field(row, responseTopicField);
+        if (rowResponseTopic != null) {
+            routed = routed.withResponseTopic(rowResponseTopic.toString());
+        }
+
+        Object rowCorrelationData = TopicTemplate.field(row, correlationDataField);
+        if (rowCorrelationData != null) {
+            routed = routed.withCorrelationData(decodeCorrelationData(rowCorrelationData.toString()));
+        }
+
+        return routed;
+    }
+
+    public boolean hasProperties() {
+        return responseTopic != null || correlationData != null || compression != Compression.NONE;
+    }
+
+    public byte[] serialize(Object row) throws IOException {
+        return compression.compress(codec.encode(row));
+    }
+
+    /**
+     * Correlation data is binary on the wire, and a byte array is unusable in a flow expression, so
+     * it is set as Base64, the same encoding subscribers surface it with.
+     */
+    private static byte[] decodeCorrelationData(String correlationData) {
+        try {
+            return Base64.getDecoder().decode(correlationData);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "The 'correlationData' property must be Base64-encoded, as it is binary on the wire: " + e.getMessage(),
+                e
+            );
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * How a client that lost its connection reconnects: after an exponentially growing delay, with jitter so that the
+ * clients a broker restart dropped together don't all come back at the same instant.
+ */
+@Value
+@Builder
+public class ReconnectPolicy {
+    @Builder.Default
+    Duration initialDelay = Duration.ofSeconds(1);
+
+    @Builder.Default
+    Duration maxDelay = Duration.ofMinutes(1);
+
+    /**
+     * {@code null} to retry until the client is closed.
+     */
+    Integer maxAttempts;
+
+    /**
+     * The delay before the given attempt, counted from 0: half of the exponential delay, plus a random part of
+     * the other half.
+     */
+    public Duration delay(int attempt) {
+        long exponential = initialDelay.toMillis() << Math.min(attempt, 30);
+        long delay = Math.min(maxDelay.toMillis(), exponential < 0 ? Long.MAX_VALUE : exponential);
+
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    public boolean isExhausted(int attempts) {
+        return maxAttempts != null && attempts >= maxAttempts;
+    }
+}
@@ -0,0 +1,82 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.models.executions.metrics.Timer;
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Reconnects a client in place when its connection is lost, so a subscription survives a broker restart without
+ * its trigger being torn down. Each reconnection is counted in the {@code reconnects} metric, and the time spent
+ * disconnected in the {@code downtime} one.
+ */
+class Reconnector {
+    interface Attempt {
+        void reconnect() throws Exception;
+    }
+
+    private final RunContext runContext;
+    private final ReconnectPolicy policy;
+
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile boolean closed;
+
+    Reconnector(RunContext runContext, ReconnectPolicy policy) {
+        this.runContext = runContext;
+        this.policy = policy;
+    }
+
+    /**
+     * Retries the attempt on a virtual thread until it succeeds, calling {@code giveUp} with the last failure
+     * once the policy is exhausted.
+     */
+    void start(Throwable cause, Attempt attempt, Consumer<Throwable> giveUp) {
+        if (closed || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+
+        runContext.logger().warn("Connection lost, reconnecting: {}", cause == null ? "no cause" : cause.getMessage());
+
+        Thread.ofVirtual().name("mqtt-reconnect").start(() ->
+        {
+            long lostAt = System.nanoTime();
+            Throwable last = cause;
+
+            try {
+                for (int i = 0; !policy.isExhausted(i); i++) {
+                    Thread.sleep(policy.delay(i));
+
+                    if (closed) {
+                        return;
+                    }
+
+                    try {
+                        attempt.reconnect();
+
+                        runContext.metric(Counter.of("reconnects", 1));
+                        runContext.metric(Timer.of("downtime", Duration.ofNanos(System.nanoTime() - lostAt)));
+                        runContext.logger().info("Reconnected after {} attempt(s)", i + 1);
+
+                        return;
+                    } catch (Exception e) {
+                        last = e;
+                        runContext.logger().debug("Reconnection attempt {} failed: {}", i + 1, e.getMessage());
+                    }
+                }
+
+                giveUp.accept(last);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                reconnecting.set(false);
+            }
+        });
+    }
+
+    void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,152 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.FileSerde;
+
+/**
+ * Writes received messages to internal storage files, rolling over to a new file once the current one reaches
+ * a size, a number of records or an age, so a long subscription neither needs unbounded local disk nor holds
+ * everything back until it ends. Each chunk is uploaded as soon as it is complete, and its local file deleted.
+ * <p>
+ * Without any limit, a single file is written and uploaded when the writer is closed.
+ */
+public class RollingFileWriter implements AutoCloseable {
+    private final RunContext runContext;
+    private final OutputFormat format;
+    private final Long maxBytes;
+    private final Integer maxRecords;
+    private final Long maxAge;
+
+    private final List<URI> uris = new ArrayList<>();
+
+    private File file;
+    private CountingOutputStream output;
+    private int records;
+    private long openedAt;
+
+    public RollingFileWriter(RunContext runContext, OutputFormat format, Long maxBytes, Integer maxRecords, Duration maxAge) {
+        this.runContext = runContext;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.maxRecords = maxRecords;
+        this.maxAge = maxAge == null ? null : maxAge.toNanos();
+    }
+
+    public boolean isRolling() {
+        return maxBytes != null || maxRecords != null || maxAge != null;
+    }
+
+    public void write(Message message) throws IOException {
+        if (output == null) {
+            this.open();
+        }
+
+        format.write(output, message);
+        records++;
+
+        if ((maxBytes != null && output.getCount() >= maxBytes) || (maxRecords != null && records >= maxRecords)) {
+            this.roll();
+        }
+    }
+
+    /**
+     * Flushes what was written so far, and rolls over the current chunk if it is older than the maximum age.
+     */
+    public void flush() throws IOException {
+        if (output == null) {
+            return;
+        }
+
+        if (maxAge != null && System.nanoTime() - openedAt >= maxAge) {
+            this.roll();
+        } else {
+            output.flush();
+        }
+    }
+
+    /**
+     * Uploads the last chunk, or an empty file if nothing was written at all.
+     *
+     * @return the URIs of every chunk, in the order they were written
+     */
+    public List<URI> finish() throws IOException {
+        if (output != null || uris.isEmpty()) {
+            if (output == null) {
+                this.open();
+            }
+
+            this.roll();
+        }
+
+        return List.copyOf(uris);
+    }
+
+    private void open() throws IOException {
+        file = runContext.workingDir().createTempFile("." + format.extension()).toFile();
+        output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), FileSerde.BUFFER_SIZE));
+        records = 0;
+        openedAt = System.nanoTime();
+    }
+
+    private void roll() throws IOException {
+        output.close();
+        output = null;
+
+        uris.add(runContext.storage().putFile(file));
+        Files.deleteIfExists(file.toPath());
+        file = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+        if (file != null) {
+            Files.deleteIfExists(file.toPath());
+            file = null;
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, so a chunk is rolled over by size without asking the file system.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // the inherited method writes byte by byte
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -1,25 +1,18 @@
 package io.kestra.plugin.mqtt.services;
 
-import java.io.IOException;
-import java.nio.charset.Charset;
-
-import io.kestra.core.serializers.JacksonMapper;
-
+/**
+ * The built-in payload formats, each naming the {@link io.kestra.plugin.mqtt.services.codecs.PayloadCodec} that
+ * handles it.
+ */
 @io.swagger.v3.oas.annotations.media.Schema(
     title = "Serializer / Deserializer used for the payload"
 )
 public enum SerdeType {
     STRING,
     JSON,
-    BYTES;
-
-    Object deserialize(byte[] payload) throws IOException {
-        if (this == SerdeType.JSON) {
-            return JacksonMapper.ofJson(false).readValue(payload, Object.class);
-        } else if (this == SerdeType.STRING) {
-            return new String(payload, Charset.defaultCharset());
-        } else {
-            return payload;
-        }
-    }
+    BYTES,
+    CBOR,
+    MESSAGEPACK,
+    AVRO,
+    PROTOBUF
 }
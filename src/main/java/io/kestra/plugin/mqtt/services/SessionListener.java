@@ -0,0 +1,57 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the messages matching no subscription listener: the ones a resumed session queued while disconnected,
+ * and the ones of shared subscriptions, which the broker delivers under the topic rather than the filter.
+ * <p>
+ * They are handed to the listener of the current subscription, replaced on each {@code subscribe} and cleared on
+ * {@code unsubscribe}. Those arriving while there is none, such as before the first subscription, are kept and
+ * handed to the next listener, so the client callback thread never waits for it.
+ */
+final class SessionListener<M> {
+    interface Listener<M> {
+        void messageArrived(String topic, M message) throws Exception;
+    }
+
+    private record Pending<M>(String topic, M message) {
+    }
+
+    private final List<Pending<M>> pending = new ArrayList<>();
+    private Listener<M> listener;
+
+    void messageArrived(String topic, M message) throws Exception {
+        Listener<M> current;
+        synchronized (this) {
+            current = listener;
+            if (current == null) {
+                pending.add(new Pending<>(topic, message));
+                return;
+            }
+        }
+
+        current.messageArrived(topic, message);
+    }
+
+    /**
+     * Hands the messages kept so far to the listener, then the ones arriving from now on.
+     */
+    void set(Listener<M> listener) throws Exception {
+        List<Pending<M>> kept;
+        synchronized (this) {
+            this.listener = listener;
+            kept = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (Pending<M> message : kept) {
+            listener.messageArrived(message.topic(), message.message());
+        }
+    }
+
+    synchronized void clear() {
+        listener = null;
+    }
+}
@@ -0,0 +1,243 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.kestra.core.exceptions.IllegalVariableEvaluationException;
+import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.mqtt.Subscribe;
+import io.kestra.plugin.mqtt.services.codecs.PayloadCodec;
+import io.kestra.plugin.mqtt.services.codecs.PayloadCodecs;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * The {@link Subscribe} properties rendered once for a whole subscription, so receiving a message only costs
+ * decoding its payload.
+ * <p>
+ * Each topic filter may have its own {@link SerdeType}: a message is decoded with the one of the subscription it
+ * was received on, found from the MQTT 5 subscription identifier the broker tagged it with, or else by resolving
+ * its topic through a {@link TopicTrie} of the filters. Every codec is created with the same options, so the
+ * filters can only use a single serde that reads a schema.
+ */
+@Value
+@Builder
+@With
+public class SubscribePlan {
+    private static final String SHARE_PREFIX = "$share/";
+
+    private static final Set<SerdeType> SCHEMA_SERDE_TYPES = EnumSet.of(SerdeType.AVRO, SerdeType.PROTOBUF);
+
+    /**
+     * The topic filters to subscribe to, shared ones prefixed with their group.
+     */
+    String[] topics;
+
+    /**
+     * The shared subscription group, {@code null} when the topics aren't shared.
+     */
+    String shareGroup;
+
+    int qos;
+
+    /**
+     * The serde of messages received on a filter without one of its own.
+     */
+    SerdeType serdeType;
+
+    /**
+     * The serde of each of the {@link #topics}.
+     */
+    SerdeType[] topicSerdeTypes;
+
+    /**
+     * The filters resolving a topic to its serde, {@code null} when every filter has the same one.
+     */
+    TopicTrie<SerdeType> routes;
+
+    /**
+     * The codec decoding the payloads of each serde in use, the one of {@link #serdeType} being replaced by the
+     * `codec` of the task when set.
+     */
+    Map<SerdeType, PayloadCodec> codecs;
+
+    /**
+     * The compression of payloads that aren't marked with their own.
+     */
+    Compression compression;
+
+    /**
+     * Drops messages before they are decoded, {@code null} to keep them all.
+     */
+    MessageFilter filter;
+
+    /**
+     * Drops messages already received, {@code null} to keep them all.
+     */
+    Deduplicator deduplicator;
+
+    /**
+     * Keeps payloads as the bytes received, for outputs writing them as is.
+     */
+    boolean raw;
+
+    public static SubscribePlan of(RunContext runContext, Subscribe subscribe) throws Exception {
+        String rShareGroup = runContext.render(subscribe.getShareGroup()).as(String.class).orElse(null);
+        SerdeType rSerdeType = runContext.render(subscribe.getSerdeType()).as(SerdeType.class).orElseThrow();
+        Map<String, SerdeType> rSerdeTypes = runContext.render(subscribe.getSerdeTypes()).asMap(String.class, SerdeType.class);
+        String[] topics = subscribe.topics(runContext);
+
+        List<String> unknown = rSerdeTypes.keySet().stream().filter(filter -> !List.of(topics).contains(filter)).toList();
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("The `serdeTypes` filters " + unknown + " are not subscribed to, they must be listed in `topic`");
+        }
+
+        SerdeType[] topicSerdeTypes = new SerdeType[topics.length];
+        TopicTrie<SerdeType> routes = new TopicTrie<>();
+        for (int i = 0; i < topics.length; i++) {
+            topicSerdeTypes[i] = rSerdeTypes.getOrDefault(topics[i], rSerdeType);
+            routes.put(unshare(topics[i]), topicSerdeTypes[i]);
+        }
+
+        boolean uniform = List.of(topicSerdeTypes).stream().allMatch(serdeType -> serdeType == rSerdeType);
+
+        List<SerdeType> schemaSerdeTypes = List.of(topicSerdeTypes).stream().filter(SCHEMA_SERDE_TYPES::contains).distinct().toList();
+        if (schemaSerdeTypes.size() > 1) {
+            throw new IllegalArgumentException("The serdes " + schemaSerdeTypes + " cannot be mixed, they would read the same schema from `codecOptions`");
+        }
+
+        String rCodec = runContext.render(subscribe.getCodec()).as(String.class).orElse(null);
+        Map<String, Object> rCodecOptions = runContext.render(subscribe.getCodecOptions()).asMap(String.class, Object.class);
+
+        Map<SerdeType, PayloadCodec> codecs = new EnumMap<>(SerdeType.class);
+        codecs.put(rSerdeType, PayloadCodecs.create(rCodec == null ? rSerdeType.name() : rCodec, runContext, rCodecOptions));
+        for (SerdeType serdeType : topicSerdeTypes) {
+            if (!codecs.containsKey(serdeType)) {
+                codecs.put(serdeType, PayloadCodecs.create(serdeType.name(), runContext, rCodecOptions));
+            }
+        }
+
+        return SubscribePlan.builder()
+            .topics(share(topics, rShareGroup))
+            .shareGroup(rShareGroup)
+            .qos(runContext.render(subscribe.getQos()).as(Integer.class).orElseThrow())
+            .serdeType(rSerdeType)
+            .topicSerdeTypes(topicSerdeTypes)
+            .routes(uniform ? null : routes)
+            .codecs(codecs)
+            .compression(runContext.render(subscribe.getCompression()).as(Compression.class).orElse(Compression.NONE))
+            .filter(MessageFilter.of(
+                runContext.render(subscribe.getFilterTopic()).as(String.class).orElse(null),
+                runContext.render(subscribe.getFilterUserProperties()).asMap(String.class, String.class),
+                runContext.render(subscribe.getFilterJsonPointer()).as(String.class).orElse(null),
+                runContext.render(subscribe.getFilterJsonValue()).as(String.class).orElse(null)
+            ))
+            .deduplicator(deduplicator(runContext, subscribe))
+            .build();
+    }
+
+    /**
+     * Whether filters have their own serde, and messages must be told apart by the subscription they were received on.
+     */
+    public boolean isRouted() {
+        return routes != null;
+    }
+
+    /**
+     * The MQTT 5 subscription identifier tagging the messages decoded with a serde.
+     */
+    public static int subscriptionIdentifier(SerdeType serdeType) {
+        return serdeType.ordinal() + 1;
+    }
+
+    private static String unshare(String topic) {
+        return topic.startsWith(SHARE_PREFIX) ? topic.substring(topic.indexOf('/', SHARE_PREFIX.length()) + 1) : topic;
+    }
+
+    static String[] share(String[] topics, String shareGroup) {
+        if (shareGroup == null) {
+            return topics;
+        }
+
+        if (shareGroup.isEmpty() || shareGroup.contains("/") || shareGroup.contains("+") || shareGroup.contains("#")) {
+            throw new IllegalArgumentException("Invalid share group '" + shareGroup + "', it can't be empty nor contain '/', '+' or '#'");
+        }
+
+        String[] shared = new String[topics.length];
+        for (int i = 0; i < topics.length; i++) {
+            shared[i] = topics[i].startsWith(SHARE_PREFIX) ? topics[i] : SHARE_PREFIX + shareGroup + "/" + topics[i];
+        }
+
+        return shared;
+    }
+
+    /**
+     * Undoes the compression a payload is marked with, or else the one of the subscription, before the payload
+     * is filtered or decoded.
+     *
+     * @param contentEncoding the MQTT 5 {@value Compression#USER_PROPERTY} user property, {@code null} when not set
+     */
+    public byte[] decompress(byte[] payload, String contentEncoding) throws IOException {
+        return (contentEncoding == null ? compression : Compression.of(contentEncoding)).decompress(payload);
+    }
+
+    /**
+     * Whether a message passes the filter and wasn't already received.
+     */
+    public boolean accepts(String topic, byte[] payload, Function<String, String> userProperty) {
+        return (filter == null || filter.accepts(topic, payload, userProperty)) &&
+            (deduplicator == null || !deduplicator.isDuplicate(topic, payload, userProperty));
+    }
+
+    private static Deduplicator deduplicator(RunContext runContext, Subscribe subscribe) throws IllegalVariableEvaluationException {
+        Duration rWindow = runContext.render(subscribe.getDeduplicationWindow()).as(Duration.class).orElse(null);
+        if (rWindow == null) {
+            return null;
+        }
+
+        return new Deduplicator(
+            rWindow,
+            runContext.render(subscribe.getDeduplicationSize()).as(Integer.class).orElse(Deduplicator.DEFAULT_SIZE),
+            runContext.render(subscribe.getDeduplicationUserProperty()).as(String.class).orElse(null)
+        );
+    }
+
+    public Object decode(String topic, byte[] payload) throws IOException {
+        if (raw) {
+            return payload;
+        }
+
+        return codecs.get(routes == null ? serdeType : this.serdeType(topic)).decode(payload);
+    }
+
+    /**
+     * Decodes a payload with the serde of the subscription identifiers tagging it, falling back to its topic when
+     * there are none, or several ones for filters overlapping each other.
+     */
+    public Object decode(String topic, List<Integer> subscriptionIdentifiers, byte[] payload) throws IOException {
+        if (raw || routes == null || subscriptionIdentifiers == null || subscriptionIdentifiers.size() != 1) {
+            return this.decode(topic, payload);
+        }
+
+        int identifier = subscriptionIdentifiers.getFirst();
+        PayloadCodec codec = identifier < 1 || identifier > SerdeType.values().length ? null : codecs.get(SerdeType.values()[identifier - 1]);
+        if (codec == null) {
+            return this.decode(topic, payload);
+        }
+
+        return codec.decode(payload);
+    }
+
+    private SerdeType serdeType(String topic) {
+        SerdeType matched = routes.match(topic);
+        return matched == null ? serdeType : matched;
+    }
+}
@@ -0,0 +1,131 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonPointer;
+
+/**
+ * Folds a numeric field of received messages into per-topic statistics over tumbling windows, so a subscription
+ * only keeps a few numbers per topic rather than every message.
+ * <p>
+ * The field is read from the raw payload bytes through a JSON pointer. Each topic has one accumulator per window
+ * of arrival time, holding the count, minimum, maximum and sum of its values, and a {@link DDSketch} for the
+ * percentiles. Without a window, a single one spans the whole subscription.
+ */
+public final class TopicAggregator {
+    public static final List<Double> DEFAULT_PERCENTILES = List.of(0.5, 0.9, 0.99);
+
+    private final JsonPointer field;
+    private final Long window;
+    private final List<Double> percentiles;
+
+    private final Map<Key, Accumulator> accumulators = new HashMap<>();
+    private long skipped;
+
+    private record Key(String topic, long windowStart) {
+    }
+
+    private static final class Accumulator {
+        private final DDSketch sketch = new DDSketch(DDSketch.DEFAULT_RELATIVE_ACCURACY);
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+
+        void add(double value) {
+            sketch.add(value);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+    }
+
+    public TopicAggregator(String field, Duration window, List<Double> percentiles) {
+        for (Double percentile : percentiles) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("Percentiles must be between 0 and 1, got " + percentile);
+            }
+        }
+
+        this.field = JsonPointer.compile(field);
+        this.window = window == null ? null : window.toMillis();
+        this.percentiles = List.copyOf(percentiles);
+    }
+
+    /**
+     * @return {@code false} if the payload has no finite number at the field, e.g. {@code 1e309} overflowing to
+     * infinity, the message is then not aggregated
+     */
+    public synchronized boolean add(String topic, byte[] payload) {
+        Double value = JsonPointers.number(payload, field);
+        if (value == null || !Double.isFinite(value)) {
+            skipped++;
+            return false;
+        }
+
+        long windowStart = window == null ? 0 : Math.floorDiv(System.currentTimeMillis(), window) * window;
+        accumulators.computeIfAbsent(new Key(topic, windowStart), k -> new Accumulator()).add(value);
+
+        return true;
+    }
+
+    /**
+     * @return the number of messages that had no finite number at the field
+     */
+    public synchronized long skipped() {
+        return skipped;
+    }
+
+    /**
+     * One row per topic and window, ordered by window then topic.
+     */
+    public synchronized List<Map<String, Object>> rows() {
+        List<Map<String, Object>> rows = new ArrayList<>(accumulators.size());
+
+        accumulators.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey(Comparator.comparingLong(Key::windowStart).thenComparing(Key::topic)))
+            .forEach(entry -> {
+                Key key = entry.getKey();
+                Accumulator accumulator = entry.getValue();
+                long count = accumulator.sketch.count();
+
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("topic", key.topic());
+                if (window != null) {
+                    row.put("windowStart", Instant.ofEpochMilli(key.windowStart()));
+                    row.put("windowEnd", Instant.ofEpochMilli(key.windowStart() + window));
+                }
+                row.put("count", count);
+                row.put("min", accumulator.min);
+                row.put("max", accumulator.max);
+                row.put("sum", accumulator.sum);
+                row.put("avg", accumulator.sum / count);
+
+                Map<String, Double> quantiles = new LinkedHashMap<>();
+                for (Double percentile : percentiles) {
+                    // an estimate can't be outside of the values seen
+                    double quantile = accumulator.sketch.quantile(percentile);
+                    quantiles.put(percentileName(percentile), Math.min(accumulator.max, Math.max(accumulator.min, quantile)));
+                }
+                row.put("percentiles", quantiles);
+
+                rows.add(row);
+            });
+
+        return rows;
+    }
+
+    /**
+     * e.g. {@code p50} for 0.5 and {@code p99.9} for 0.999.
+     */
+    private static String percentileName(double percentile) {
+        return "p" + BigDecimal.valueOf(percentile).movePointRight(2).stripTrailingZeros().toPlainString();
+    }
+}
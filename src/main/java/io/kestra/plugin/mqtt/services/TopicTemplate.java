@@ -0,0 +1,114 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A topic with {@code ${field}} placeholders resolved against the fields of each published row, e.g.
+ * {@code devices/${device.id}/state}. A placeholder is a dotted path into nested objects of the row.
+ * <p>
+ * Templates are compiled once into literal and field segments, and compiled templates are cached worker-wide,
+ * so routing a row to its topic is a map lookup per placeholder.
+ */
+public final class TopicTemplate {
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<String, TopicTemplate> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TopicTemplate> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private final String template;
+    private final List<String> literals;
+    private final List<String[]> fields;
+
+    private TopicTemplate(String template, List<String> literals, List<String[]> fields) {
+        this.template = template;
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    public static boolean isTemplate(String topic) {
+        return topic.contains("${");
+    }
+
+    public static TopicTemplate of(String template) {
+        return CACHE.computeIfAbsent(template, TopicTemplate::compile);
+    }
+
+    private static TopicTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String[]> fields = new ArrayList<>();
+
+        int position = 0;
+        int start;
+        while ((start = template.indexOf("${", position)) >= 0) {
+            int end = template.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in topic '" + template + "'");
+            }
+
+            String path = template.substring(start + 2, end).strip();
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder in topic '" + template + "'");
+            }
+
+            literals.add(template.substring(position, start));
+            fields.add(path.split("\\."));
+            position = end + 1;
+        }
+        literals.add(template.substring(position));
+
+        return new TopicTemplate(template, List.copyOf(literals), List.copyOf(fields));
+    }
+
+    public String render(Object row) {
+        StringBuilder topic = new StringBuilder(template.length() + 32);
+
+        for (int i = 0; i < fields.size(); i++) {
+            topic.append(literals.get(i));
+
+            Object value = field(row, fields.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException(
+                    "Cannot route row to topic '" + template + "': field '" + String.join(".", fields.get(i)) + "' is missing"
+                );
+            }
+
+            topic.append(value);
+        }
+
+        return topic.append(literals.getLast()).toString();
+    }
+
+    /**
+     * Resolves a dotted path into a row, returning {@code null} when any part of it is missing or there is no path.
+     */
+    public static Object field(Object row, String[] path) {
+        if (path == null) {
+            return null;
+        }
+
+        Object current = row;
+
+        for (String key : path) {
+            if (!(current instanceof Map<?, ?> map)) {
+                return null;
+            }
+
+            current = map.get(key);
+        }
+
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
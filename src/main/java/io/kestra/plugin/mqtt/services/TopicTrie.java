@@ -0,0 +1,93 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MQTT topic filters compiled into a tree of topic levels, resolving a topic to the value of the filter that
+ * matches it with one lookup per level rather than by matching it against every filter.
+ * <p>
+ * When several filters match, the most specific one wins: at each level a literal match is preferred over a
+ * {@code +}, itself preferred over a {@code #}. As in MQTT, wildcards at the first level don't match topics
+ * starting with {@code $}.
+ */
+public final class TopicTrie<V> {
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    private final Node<V> root = new Node<>();
+
+    private static final class Node<V> {
+        private final Map<String, Node<V>> children = new HashMap<>();
+        private V value;
+    }
+
+    public void put(String filter, V value) {
+        Node<V> node = root;
+
+        int from = 0;
+        while (true) {
+            int to = filter.indexOf('/', from);
+            String level = to < 0 ? filter.substring(from) : filter.substring(from, to);
+
+            if (level.equals(MULTI_LEVEL) && to >= 0) {
+                throw new IllegalArgumentException("Invalid topic filter '" + filter + "', '#' must be its last level");
+            }
+
+            node = node.children.computeIfAbsent(level, k -> new Node<>());
+
+            if (to < 0) {
+                break;
+            }
+            from = to + 1;
+        }
+
+        node.value = value;
+    }
+
+    /**
+     * @return the value of the most specific filter matching the topic, or {@code null} if none does
+     */
+    public V match(String topic) {
+        return match(root, topic, 0, !topic.startsWith("$"));
+    }
+
+    private static <V> V match(Node<V> node, String topic, int from, boolean wildcards) {
+        if (from > topic.length()) {
+            // every level was consumed, "a/#" also matches "a"
+            if (node.value != null) {
+                return node.value;
+            }
+
+            Node<V> multi = node.children.get(MULTI_LEVEL);
+            return multi == null ? null : multi.value;
+        }
+
+        int to = topic.indexOf('/', from);
+        int end = to < 0 ? topic.length() : to;
+        int next = end + 1;
+
+        Node<V> literal = node.children.get(topic.substring(from, end));
+        if (literal != null) {
+            V value = match(literal, topic, next, true);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        if (!wildcards) {
+            return null;
+        }
+
+        Node<V> single = node.children.get(SINGLE_LEVEL);
+        if (single != null) {
+            V value = match(single, topic, next, true);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        Node<V> multi = node.children.get(MULTI_LEVEL);
+        return multi == null ? null : multi.value;
+    }
+}
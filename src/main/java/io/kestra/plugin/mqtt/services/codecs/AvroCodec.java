@@ -0,0 +1,201 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericArray;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Avro binary encoded datums, without header nor schema: publishers and subscribers share the schema given in
+ * the options.
+ * <p>
+ * Rows are converted to and from generic records of the schema, with strings, lists and maps in place of Avro's
+ * own types. Encoders and decoders are reused per thread.
+ */
+public final class AvroCodec implements PayloadCodec {
+    private final Schema schema;
+    private final GenericDatumReader<Object> reader;
+    private final GenericDatumWriter<Object> writer;
+
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+    private final ThreadLocal<Encoding> encodings = ThreadLocal.withInitial(Encoding::new);
+
+    private static final class Encoding {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(output, null);
+    }
+
+    public AvroCodec(Schema schema) {
+        this.schema = schema;
+        this.reader = new GenericDatumReader<>(schema);
+        this.writer = new GenericDatumWriter<>(schema);
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        Object datum = toAvro(schema, value);
+
+        Encoding encoding = encodings.get();
+        encoding.output.reset();
+        writer.write(datum, encoding.encoder);
+        encoding.encoder.flush();
+
+        return encoding.output.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(payload, offset, length, decoders.get());
+        decoders.set(decoder);
+
+        return fromAvro(reader.read(null, decoder));
+    }
+
+    private static Object fromAvro(Object value) {
+        if (value instanceof GenericRecord record) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Schema.Field field : record.getSchema().getFields()) {
+                map.put(field.name(), fromAvro(record.get(field.pos())));
+            }
+            return map;
+        }
+
+        if (value instanceof Collection<?> collection) {
+            List<Object> list = new ArrayList<>(collection.size());
+            for (Object item : collection) {
+                list.add(fromAvro(item));
+            }
+            return list;
+        }
+
+        if (value instanceof Map<?, ?> avroMap) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            avroMap.forEach((k, v) -> map.put(k.toString(), fromAvro(v)));
+            return map;
+        }
+
+        if (value instanceof CharSequence || value instanceof GenericEnumSymbol<?>) {
+            return value.toString();
+        }
+
+        if (value instanceof ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        if (value instanceof GenericFixed fixed) {
+            return fixed.bytes().clone();
+        }
+
+        return value;
+    }
+
+    private static Object toAvro(Schema schema, Object value) {
+        switch (schema.getType()) {
+            case NULL:
+                if (value != null) {
+                    throw new AvroTypeException("Expected null for " + schema + ", got " + value);
+                }
+                return null;
+            case UNION:
+                // the first branch the value converts to
+                for (Schema branch : schema.getTypes()) {
+                    try {
+                        Object converted = toAvro(branch, value);
+                        if (GenericData.get().validate(branch, converted)) {
+                            return converted;
+                        }
+                    } catch (RuntimeException e) {
+                        // tries the next branch
+                    }
+                }
+                throw new AvroTypeException("No branch of " + schema + " matches " + value);
+        }
+
+        if (value == null) {
+            throw new AvroTypeException("Missing value for " + schema);
+        }
+
+        return switch (schema.getType()) {
+            case RECORD -> {
+                Map<?, ?> map = (Map<?, ?>) value;
+                GenericData.Record record = new GenericData.Record(schema);
+                for (Schema.Field field : schema.getFields()) {
+                    Object fieldValue = map.get(field.name());
+                    if (fieldValue == null && field.hasDefaultValue()) {
+                        record.put(field.pos(), GenericData.get().getDefaultValue(field));
+                    } else {
+                        record.put(field.pos(), toAvro(field.schema(), fieldValue));
+                    }
+                }
+                yield record;
+            }
+            case ARRAY -> {
+                Collection<?> collection = (Collection<?>) value;
+                GenericArray<Object> array = new GenericData.Array<>(collection.size(), schema);
+                for (Object item : collection) {
+                    array.add(toAvro(schema.getElementType(), item));
+                }
+                yield array;
+            }
+            case MAP -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                ((Map<?, ?>) value).forEach((k, v) -> map.put(k.toString(), toAvro(schema.getValueType(), v)));
+                yield map;
+            }
+            case ENUM -> new GenericData.EnumSymbol(schema, value.toString());
+            case FIXED -> new GenericData.Fixed(schema, bytes(value));
+            case BYTES -> ByteBuffer.wrap(bytes(value));
+            case STRING -> value.toString();
+            case INT -> ((Number) value).intValue();
+            case LONG -> ((Number) value).longValue();
+            case FLOAT -> ((Number) value).floatValue();
+            case DOUBLE -> ((Number) value).doubleValue();
+            case BOOLEAN -> (Boolean) value;
+            default -> throw new AvroTypeException("Unsupported schema " + schema);
+        };
+    }
+
+    private static byte[] bytes(Object value) {
+        if (value instanceof byte[] bytes) {
+            return bytes;
+        }
+
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static final class Provider implements PayloadCodecProvider {
+        @Override
+        public String name() {
+            return "AVRO";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) throws Exception {
+            byte[] schema = SchemaSource.load(runContext, options, "AVRO");
+            return new AvroCodec(new Schema.Parser().parse(new String(schema, StandardCharsets.UTF_8)));
+        }
+    }
+}
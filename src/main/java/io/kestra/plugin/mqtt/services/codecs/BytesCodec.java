@@ -0,0 +1,37 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Payloads kept as the bytes received.
+ */
+public final class BytesCodec implements PayloadCodec {
+    @Override
+    public byte[] encode(Object value) {
+        if (value instanceof byte[] bytes) {
+            return bytes;
+        }
+
+        throw new IllegalArgumentException("The BYTES codec can only publish byte arrays, got '" + value.getClass().getName() + "'");
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) {
+        return offset == 0 && length == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+    }
+
+    public static final class Provider implements PayloadCodecProvider {
+        @Override
+        public String name() {
+            return "BYTES";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) {
+            return new BytesCodec();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+/**
+ * Schemaless binary formats with the same data model as JSON, read and written by Jackson with the mapper
+ * configuration of Kestra.
+ */
+public final class JacksonCodec implements PayloadCodec {
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    private JacksonCodec(JsonFactory factory) {
+        ObjectMapper mapper = JacksonMapper.ofJson().copyWith(factory);
+
+        this.reader = mapper.readerFor(Object.class);
+        this.writer = mapper.writer();
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) throws IOException {
+        return reader.readValue(payload, offset, length);
+    }
+
+    public static final class CborProvider implements PayloadCodecProvider {
+        private static final JacksonCodec CODEC = new JacksonCodec(new CBORFactory());
+
+        @Override
+        public String name() {
+            return "CBOR";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) {
+            return CODEC;
+        }
+    }
+
+    public static final class MessagePackProvider implements PayloadCodecProvider {
+        private static final JacksonCodec CODEC = new JacksonCodec(new MessagePackFactory());
+
+        @Override
+        public String name() {
+            return "MESSAGEPACK";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) {
+            return CODEC;
+        }
+    }
+}
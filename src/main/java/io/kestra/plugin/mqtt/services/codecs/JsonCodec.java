@@ -0,0 +1,37 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.JacksonMapper;
+
+public final class JsonCodec implements PayloadCodec {
+    private static final ObjectReader READER = JacksonMapper.ofJson(false).readerFor(Object.class);
+    private static final ObjectWriter WRITER = JacksonMapper.ofJson().writer();
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return WRITER.writeValueAsBytes(value);
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) throws IOException {
+        return READER.readValue(payload, offset, length);
+    }
+
+    public static final class Provider implements PayloadCodecProvider {
+        @Override
+        public String name() {
+            return "JSON";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) {
+            return new JsonCodec();
+        }
+    }
+}
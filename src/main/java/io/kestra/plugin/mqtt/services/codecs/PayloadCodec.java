@@ -0,0 +1,31 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts between the rows of a flow and MQTT payloads.
+ * <p>
+ * A codec is created once per task by its {@link PayloadCodecProvider}, then used for every message, possibly
+ * from several threads at once: it should prepare its readers and writers up front and keep no state per
+ * message.
+ */
+public interface PayloadCodec {
+    byte[] encode(Object value) throws IOException;
+
+    Object decode(byte[] payload, int offset, int length) throws IOException;
+
+    default Object decode(byte[] payload) throws IOException {
+        return this.decode(payload, 0, payload.length);
+    }
+
+    default Object decode(ByteBuffer payload) throws IOException {
+        if (payload.hasArray()) {
+            return this.decode(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return this.decode(bytes);
+    }
+}
@@ -0,0 +1,21 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.util.Map;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Service provider creating a {@link PayloadCodec}, found with {@link java.util.ServiceLoader}: a plugin adds a
+ * codec by listing its provider in {@code META-INF/services/io.kestra.plugin.mqtt.services.codecs.PayloadCodecProvider}.
+ */
+public interface PayloadCodecProvider {
+    /**
+     * The name the codec is selected with, matched case-insensitively.
+     */
+    String name();
+
+    /**
+     * @param options the codec options of the task, already rendered
+     */
+    PayloadCodec create(RunContext runContext, Map<String, Object> options) throws Exception;
+}
@@ -0,0 +1,44 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * The {@link PayloadCodecProvider}s on the plugin class path, loaded once.
+ */
+public final class PayloadCodecs {
+    private static volatile Map<String, PayloadCodecProvider> providers;
+
+    private PayloadCodecs() {
+    }
+
+    public static PayloadCodec create(String name, RunContext runContext, Map<String, Object> options) throws Exception {
+        PayloadCodecProvider provider = providers().get(name.toUpperCase(Locale.ROOT));
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown codec '" + name + "', available ones are " + providers().keySet());
+        }
+
+        return provider.create(runContext, options == null ? Map.of() : options);
+    }
+
+    private static Map<String, PayloadCodecProvider> providers() {
+        if (providers == null) {
+            synchronized (PayloadCodecs.class) {
+                if (providers == null) {
+                    Map<String, PayloadCodecProvider> loaded = new TreeMap<>();
+                    for (PayloadCodecProvider provider : ServiceLoader.load(PayloadCodecProvider.class, PayloadCodecs.class.getClassLoader())) {
+                        loaded.putIfAbsent(provider.name().toUpperCase(Locale.ROOT), provider);
+                    }
+
+                    providers = Map.copyOf(loaded);
+                }
+            }
+        }
+
+        return providers;
+    }
+}
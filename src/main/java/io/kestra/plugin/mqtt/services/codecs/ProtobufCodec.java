@@ -0,0 +1,226 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Protocol Buffers messages of the {@code messageType} option, described by the file descriptor set given as
+ * schema, as {@code protoc --include_imports --descriptor_set_out} writes it.
+ * <p>
+ * Rows are converted to and from dynamic messages by field name, enums being their value names and map fields
+ * plain maps.
+ */
+public final class ProtobufCodec implements PayloadCodec {
+    private final Descriptors.Descriptor descriptor;
+
+    public ProtobufCodec(Descriptors.Descriptor descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return toMessage(descriptor, (Map<?, ?>) value).toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) throws IOException {
+        return fromMessage(DynamicMessage.newBuilder(descriptor).mergeFrom(payload, offset, length).build());
+    }
+
+    private static Map<String, Object> fromMessage(Message message) {
+        Map<String, Object> map = new LinkedHashMap<>();
+
+        // proto3 scalars without presence aren't set when equal to their default, which is still their value
+        for (Descriptors.FieldDescriptor field : message.getDescriptorForType().getFields()) {
+            if (field.hasPresence() && !message.hasField(field)) {
+                continue;
+            }
+
+            Object value = message.getField(field);
+            if (field.isMapField()) {
+                Map<String, Object> entries = new LinkedHashMap<>();
+                for (Object entry : (List<?>) value) {
+                    Message entryMessage = (Message) entry;
+                    Descriptors.Descriptor entryType = entryMessage.getDescriptorForType();
+                    Descriptors.FieldDescriptor valueField = entryType.findFieldByName("value");
+                    entries.put(
+                        entryMessage.getField(entryType.findFieldByName("key")).toString(),
+                        fromValue(valueField, entryMessage.getField(valueField))
+                    );
+                }
+                map.put(field.getName(), entries);
+            } else if (field.isRepeated()) {
+                List<Object> list = new ArrayList<>();
+                for (Object item : (List<?>) value) {
+                    list.add(fromValue(field, item));
+                }
+                map.put(field.getName(), list);
+            } else {
+                map.put(field.getName(), fromValue(field, value));
+            }
+        }
+
+        return map;
+    }
+
+    private static Object fromValue(Descriptors.FieldDescriptor field, Object value) {
+        return switch (field.getJavaType()) {
+            case MESSAGE -> fromMessage((Message) value);
+            case ENUM -> ((Descriptors.EnumValueDescriptor) value).getName();
+            case BYTE_STRING -> ((ByteString) value).toByteArray();
+            default -> value;
+        };
+    }
+
+    private static DynamicMessage toMessage(Descriptors.Descriptor type, Map<?, ?> map) {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+
+        map.forEach((name, value) -> {
+            Descriptors.FieldDescriptor field = type.findFieldByName(name.toString());
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field '" + name + "' in message '" + type.getFullName() + "'");
+            }
+
+            if (value == null) {
+                return;
+            }
+
+            if (field.isMapField()) {
+                Descriptors.Descriptor entryType = field.getMessageType();
+                Descriptors.FieldDescriptor keyField = entryType.findFieldByName("key");
+                Descriptors.FieldDescriptor valueField = entryType.findFieldByName("value");
+                ((Map<?, ?>) value).forEach((k, v) -> builder.addRepeatedField(field, DynamicMessage.newBuilder(entryType)
+                    .setField(keyField, toValue(keyField, k))
+                    .setField(valueField, toValue(valueField, v))
+                    .build()
+                ));
+            } else if (field.isRepeated()) {
+                for (Object item : (Collection<?>) value) {
+                    builder.addRepeatedField(field, toValue(field, item));
+                }
+            } else {
+                builder.setField(field, toValue(field, value));
+            }
+        });
+
+        return builder.build();
+    }
+
+    private static Object toValue(Descriptors.FieldDescriptor field, Object value) {
+        return switch (field.getJavaType()) {
+            case MESSAGE -> toMessage(field.getMessageType(), (Map<?, ?>) value);
+            case ENUM -> {
+                Descriptors.EnumValueDescriptor enumValue = value instanceof Number number ?
+                    field.getEnumType().findValueByNumber(number.intValue()) :
+                    field.getEnumType().findValueByName(value.toString());
+                if (enumValue == null) {
+                    throw new IllegalArgumentException("Unknown value '" + value + "' for enum '" + field.getEnumType().getFullName() + "'");
+                }
+                yield enumValue;
+            }
+            case BYTE_STRING -> value instanceof byte[] bytes ?
+                ByteString.copyFrom(bytes) :
+                ByteString.copyFrom(value.toString(), StandardCharsets.UTF_8);
+            case STRING -> value.toString();
+            case INT -> value instanceof Number number ? number.intValue() : Integer.parseInt(value.toString());
+            case LONG -> value instanceof Number number ? number.longValue() : Long.parseLong(value.toString());
+            case FLOAT -> value instanceof Number number ? number.floatValue() : Float.parseFloat(value.toString());
+            case DOUBLE -> value instanceof Number number ? number.doubleValue() : Double.parseDouble(value.toString());
+            case BOOLEAN -> value instanceof Boolean bool ? bool : Boolean.parseBoolean(value.toString());
+        };
+    }
+
+    /**
+     * Finds a message type, nested or not, among the files of a descriptor set, building the files they import first.
+     */
+    static Descriptors.Descriptor descriptor(byte[] descriptorSet, String messageType) throws InvalidProtocolBufferException, Descriptors.DescriptorValidationException {
+        Map<String, DescriptorProtos.FileDescriptorProto> protos = new HashMap<>();
+        for (DescriptorProtos.FileDescriptorProto proto : DescriptorProtos.FileDescriptorSet.parseFrom(descriptorSet).getFileList()) {
+            protos.put(proto.getName(), proto);
+        }
+
+        Map<String, Descriptors.FileDescriptor> files = new HashMap<>();
+        for (String name : protos.keySet()) {
+            Descriptors.Descriptor descriptor = find(file(name, protos, files).getMessageTypes(), messageType);
+            if (descriptor != null) {
+                return descriptor;
+            }
+        }
+
+        throw new IllegalArgumentException("No message type '" + messageType + "' in the descriptor set, found " + files.keySet());
+    }
+
+    private static Descriptors.FileDescriptor file(
+        String name,
+        Map<String, DescriptorProtos.FileDescriptorProto> protos,
+        Map<String, Descriptors.FileDescriptor> files
+    ) throws Descriptors.DescriptorValidationException {
+        Descriptors.FileDescriptor file = files.get(name);
+        if (file != null) {
+            return file;
+        }
+
+        DescriptorProtos.FileDescriptorProto proto = protos.get(name);
+        if (proto == null) {
+            throw new IllegalArgumentException("The descriptor set misses the imported file '" + name + "', build it with `--include_imports`");
+        }
+
+        Descriptors.FileDescriptor[] dependencies = new Descriptors.FileDescriptor[proto.getDependencyCount()];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i] = file(proto.getDependency(i), protos, files);
+        }
+
+        file = Descriptors.FileDescriptor.buildFrom(proto, dependencies);
+        files.put(name, file);
+
+        return file;
+    }
+
+    private static Descriptors.Descriptor find(List<Descriptors.Descriptor> types, String messageType) {
+        for (Descriptors.Descriptor type : types) {
+            if (type.getFullName().equals(messageType)) {
+                return type;
+            }
+
+            Descriptors.Descriptor nested = find(type.getNestedTypes(), messageType);
+            if (nested != null) {
+                return nested;
+            }
+        }
+
+        return null;
+    }
+
+    public static final class Provider implements PayloadCodecProvider {
+        @Override
+        public String name() {
+            return "PROTOBUF";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) throws Exception {
+            Object messageType = options.get("messageType");
+            if (messageType == null) {
+                throw new IllegalArgumentException("The PROTOBUF codec requires the `messageType` in `codecOptions`");
+            }
+
+            byte[] descriptorSet = SchemaSource.load(runContext, options, "PROTOBUF");
+            return new ProtobufCodec(descriptor(descriptorSet, messageType.toString()));
+        }
+    }
+}
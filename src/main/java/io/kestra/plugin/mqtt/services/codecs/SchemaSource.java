@@ -0,0 +1,42 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Reads the schema of a codec from its options: given inline as {@code schema}, as an internal storage
+ * {@code schemaUri}, or as a {@code schemaFile} of the namespace. It is read once, when the codec is created.
+ */
+final class SchemaSource {
+    private SchemaSource() {
+    }
+
+    static byte[] load(RunContext runContext, Map<String, Object> options, String codec) throws IOException {
+        Object schema = options.get("schema");
+        if (schema != null) {
+            return schema.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        Object schemaUri = options.get("schemaUri");
+        if (schemaUri != null) {
+            try (InputStream input = runContext.storage().getFile(URI.create(schemaUri.toString()))) {
+                return input.readAllBytes();
+            }
+        }
+
+        Object schemaFile = options.get("schemaFile");
+        if (schemaFile != null) {
+            try (InputStream input = runContext.storage().namespace().getFileContent(Path.of(schemaFile.toString()))) {
+                return input.readAllBytes();
+            }
+        }
+
+        throw new IllegalArgumentException("The " + codec + " codec requires a schema: set `schema`, `schemaUri` or `schemaFile` in `codecOptions`");
+    }
+}
@@ -0,0 +1,41 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import io.kestra.core.runners.RunContext;
+
+/**
+ * Text payloads, in the {@code charset} option, UTF-8 by default.
+ */
+public final class StringCodec implements PayloadCodec {
+    private final Charset charset;
+
+    public StringCodec(Charset charset) {
+        this.charset = charset;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return value.toString().getBytes(charset);
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) {
+        return new String(payload, offset, length, charset);
+    }
+
+    public static final class Provider implements PayloadCodecProvider {
+        @Override
+        public String name() {
+            return "STRING";
+        }
+
+        @Override
+        public PayloadCodec create(RunContext runContext, Map<String, Object> options) {
+            Object charset = options.get("charset");
+            return new StringCodec(charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset.toString()));
+        }
+    }
+}
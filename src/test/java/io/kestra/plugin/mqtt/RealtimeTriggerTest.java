@@ -1,13 +1,24 @@
 package io.kestra.plugin.mqtt;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+import javax.net.ssl.SSLSocketFactory;
+
+import org.eclipse.paho.mqttv5.client.MqttClient;
+import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.reactivestreams.Subscription;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -17,16 +28,31 @@ import io.kestra.core.models.property.Property;
 import io.kestra.core.queues.QueueFactoryInterface;
 import io.kestra.core.queues.QueueInterface;
 import io.kestra.core.repositories.LocalFlowRepositoryLoader;
+import io.kestra.core.runners.RunContext;
 import io.kestra.core.runners.RunContextFactory;
 import io.kestra.core.utils.IdUtils;
 import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.mqtt.services.ConnectOptions;
+import io.kestra.plugin.mqtt.services.InFlightWindow;
+import io.kestra.plugin.mqtt.services.Message;
+import io.kestra.plugin.mqtt.services.MqttInterface;
+import io.kestra.plugin.mqtt.services.OverflowStrategy;
+import io.kestra.plugin.mqtt.services.PublishPlan;
 import io.kestra.plugin.mqtt.services.SerdeType;
+import io.kestra.plugin.mqtt.services.SubscribePlan;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BaseSubscriber;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 
 @KestraTest(startRunner = true, startScheduler = true)
 class RealtimeTriggerTest {
@@ -99,4 +125,305 @@ class RealtimeTriggerTest {
         assertThat(variables.get("responseTopic"), is(responseTopic));
         assertThat(variables.get("correlationData"), is(correlationData));
     }
+
+    @Test
+    void dropLatestShouldKeepTheBufferedMessages() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 2, OverflowStrategy.DROP_LATEST).subscribe(recorder);
+        connection.receive(1, 2, 3, 4, 5);
+
+        // dropped messages are acknowledged right away, as they will never be taken
+        assertThat(connection.acknowledged, is(List.of(3, 4, 5)));
+        assertThat(runContext.metrics().stream().filter(metric -> metric.getName().equals("dropped")).count(), is(3L));
+
+        recorder.request(Long.MAX_VALUE);
+        assertThat(recorder.received, is(List.of(1, 2)));
+        assertThat(connection.acknowledged, containsInAnyOrder(1, 2, 3, 4, 5));
+    }
+
+    @Test
+    void dropOldestShouldKeepTheLatestMessages() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 2, OverflowStrategy.DROP_OLDEST).subscribe(recorder);
+        connection.receive(1, 2, 3, 4, 5);
+
+        assertThat(connection.acknowledged, is(List.of(1, 2, 3)));
+
+        recorder.request(Long.MAX_VALUE);
+        assertThat(recorder.received, is(List.of(4, 5)));
+    }
+
+    @Test
+    void errorShouldFailTheTriggerOnOverflow() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 2, OverflowStrategy.ERROR).subscribe(recorder);
+        connection.receive(1, 2, 3);
+        recorder.request(Long.MAX_VALUE);
+
+        assertThat(recorder.terminated.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(Exceptions.isOverflow(recorder.error.get()), is(true));
+        assertThat(connection.closed, is(true));
+    }
+
+    @Test
+    void blockShouldHoldTheClientBackUntilThereIsRoom() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 2, OverflowStrategy.BLOCK).subscribe(recorder);
+
+        // the client callback thread
+        Thread client = Thread.ofVirtual().start(() -> connection.receive(1, 2, 3));
+        client.join(Duration.ofMillis(500));
+
+        assertThat(client.isAlive(), is(true));
+        assertThat(connection.acknowledged, is(empty()));
+
+        recorder.request(1);
+        client.join(Duration.ofSeconds(5));
+
+        assertThat(client.isAlive(), is(false));
+        assertThat(recorder.received, is(List.of(1)));
+        assertThat(connection.acknowledged, is(List.of(1)));
+    }
+
+    @Test
+    void messagesShouldOnlyBeAcknowledgedOnceTakenFromTheBuffer() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 10, OverflowStrategy.DROP_LATEST).subscribe(recorder);
+        connection.receive(1, 2);
+
+        assertThat(connection.acknowledged, is(empty()));
+
+        recorder.request(1);
+        assertThat(recorder.received, is(List.of(1)));
+        assertThat(connection.acknowledged, is(List.of(1)));
+    }
+
+    @Test
+    void stopShouldCompleteAndCloseTheConnectionRightAway() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+        Recorder recorder = new Recorder();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 16, OverflowStrategy.BLOCK).subscribe(recorder);
+        recorder.request(Long.MAX_VALUE);
+        connection.receive(1);
+
+        trigger.stop();
+
+        // completed by the stop itself, well within any polling interval
+        assertThat(recorder.terminated.await(200, TimeUnit.MILLISECONDS), is(true));
+        assertThat(recorder.error.get(), is(nullValue()));
+        assertThat(recorder.received, is(List.of(1)));
+        assertThat(connection.closed, is(true));
+    }
+
+    @Test
+    @Timeout(10)
+    void killShouldWaitForTheConnectionToBeClosed() throws Exception {
+        RealtimeTrigger trigger = trigger();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        FakeConnection connection = new FakeConnection();
+
+        trigger.publisher(runContext, plan(trigger, runContext), connection, 16, OverflowStrategy.BLOCK).subscribe(new Recorder());
+
+        trigger.kill();
+
+        assertThat(connection.closed, is(true));
+    }
+
+    @Test
+    void shouldResubscribeInPlaceOnceReconnected() throws Exception {
+        String topic = "test/realtime/" + IdUtils.create();
+        String clientId = IdUtils.create();
+        RealtimeTrigger trigger = RealtimeTrigger.builder()
+            .id(IdUtils.create())
+            .type(RealtimeTrigger.class.getName())
+            .server(Property.ofValue("tcp://localhost:1883"))
+            .clientId(Property.ofValue(clientId))
+            .topic(topic)
+            .serdeType(Property.ofValue(SerdeType.STRING))
+            .reconnectMaxDelay(Property.ofValue(Duration.ofSeconds(2)))
+            .build();
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+
+        List<Object> received = new CopyOnWriteArrayList<>();
+        CountDownLatch before = new CountDownLatch(1);
+        CountDownLatch after = new CountDownLatch(2);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Disposable subscription = Flux.from(trigger.publisher(trigger.subscribeTask(), runContext))
+            .subscribe(
+                message -> {
+                    received.add(message.getPayload());
+                    before.countDown();
+                    after.countDown();
+                },
+                error::set
+            );
+
+        try {
+            publish(runContext, topic, "before");
+            assertThat(before.await(10, TimeUnit.SECONDS), is(true));
+
+            // the broker drops a client when another one connects with its identifier
+            MqttClient intruder = new MqttClient("tcp://localhost:1883", clientId, new MemoryPersistence());
+            intruder.connect();
+            intruder.disconnect();
+            intruder.close();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (runContext.metrics().stream().noneMatch(metric -> metric.getName().equals("reconnects")) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+
+            publish(runContext, topic, "after");
+            assertThat(after.await(10, TimeUnit.SECONDS), is(true));
+
+            assertThat(error.get(), is(nullValue()));
+            assertThat(received, is(List.of("before", "after")));
+            assertThat(runContext.metrics().stream().anyMatch(metric -> metric.getName().equals("reconnects")), is(true));
+            assertThat(runContext.metrics().stream().anyMatch(metric -> metric.getName().equals("downtime")), is(true));
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    private static void publish(RunContext runContext, String topic, String payload) throws Exception {
+        Publish.builder()
+            .id(IdUtils.create())
+            .type(Publish.class.getName())
+            .server(Property.ofValue("tcp://localhost:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.STRING))
+            .from(payload)
+            .build()
+            .run(runContext);
+    }
+
+    private static RealtimeTrigger trigger() {
+        return RealtimeTrigger.builder()
+            .id(IdUtils.create())
+            .type(RealtimeTrigger.class.getName())
+            .server(Property.ofValue("tcp://localhost:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic("test/realtime/" + IdUtils.create())
+            .build();
+    }
+
+    private static SubscribePlan plan(RealtimeTrigger trigger, RunContext runContext) throws Exception {
+        return SubscribePlan.of(runContext, trigger.subscribeTask());
+    }
+
+    /**
+     * Hands messages to the trigger as the client callback thread would, and records what the trigger does with
+     * the connection.
+     */
+    private static class FakeConnection implements MqttInterface {
+        final List<Integer> acknowledged = new CopyOnWriteArrayList<>();
+        volatile Consumer<Message> consumer;
+        volatile boolean closed;
+
+        void receive(int... ids) {
+            for (int id : ids) {
+                consumer.accept(Message.builder().id(id).topic("test/realtime").qos(1).payload(id).build());
+            }
+        }
+
+        @Override
+        public void connect(RunContext runContext, AbstractMqttConnection connection, SSLSocketFactory sslSocketFactory, ConnectOptions options) {
+        }
+
+        @Override
+        public InFlightWindow window() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void publish(PublishPlan plan, byte[] message, InFlightWindow window) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !closed;
+        }
+
+        @Override
+        public boolean isSessionPresent() {
+            return false;
+        }
+
+        @Override
+        public void subscribe(RunContext runContext, SubscribePlan plan, Consumer<Message> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void unsubscribe(RunContext runContext, SubscribePlan plan) {
+        }
+
+        @Override
+        public void acknowledge(Message message) {
+            acknowledged.add(message.getId());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void onDisconnected(Consumer<Throwable> handler) {
+        }
+    }
+
+    /**
+     * Only requests what the test asks for, so messages stay in the buffer until then.
+     */
+    private static class Recorder extends BaseSubscriber<Message> {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch terminated = new CountDownLatch(1);
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            // nothing requested yet
+        }
+
+        @Override
+        protected void hookOnNext(Message value) {
+            received.add(value.getId());
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            error.set(throwable);
+        }
+
+        @Override
+        protected void hookFinally(SignalType type) {
+            terminated.countDown();
+        }
+    }
 }
@@ -4,9 +4,13 @@ import java.io.BufferedInputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -20,12 +24,15 @@ import io.kestra.core.serializers.FileSerde;
 import io.kestra.core.storages.StorageInterface;
 import io.kestra.core.tenant.TenantService;
 import io.kestra.core.utils.IdUtils;
+import io.kestra.plugin.mqtt.services.Compression;
+import io.kestra.plugin.mqtt.services.OutputFormat;
 import io.kestra.plugin.mqtt.services.SerdeType;
 
 import jakarta.inject.Inject;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -117,6 +124,450 @@ class SuiteTest {
         assertThat(publishOutput.getMessagesCount(), is(2));
     }
 
+    @Test
+    void pipelinedPublishShouldSendEveryRow() throws Exception {
+        var runContext = runContextFactory.of(Map.of());
+
+        for (AbstractMqttConnection.Version version : AbstractMqttConnection.Version.values()) {
+            Publish publish = Publish.builder()
+                .server(Property.ofValue("tcp://127.0.0.1:1883"))
+                .clientId(Property.ofValue(IdUtils.create()))
+                .topic(Property.ofValue("test/" + IdUtils.create()))
+                .serdeType(Property.ofValue(SerdeType.JSON))
+                .mqttVersion(Property.ofValue(version))
+                .maxInFlight(Property.ofValue(50))
+                .from(IntStream.range(0, 500).mapToObj(i -> Map.of("index", i)).toList())
+                .build();
+
+            Publish.Output publishOutput = publish.run(runContext);
+
+            assertThat(publishOutput.getMessagesCount(), is(500));
+        }
+    }
+
+    @Test
+    void shardedPublishShouldSendEveryRow() throws Exception {
+        var runContext = runContextFactory.of(Map.of());
+
+        Publish publish = Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue("test/" + IdUtils.create()))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxInFlight(Property.ofValue(20))
+            .connections(Property.ofValue(4))
+            .shardField(Property.ofValue("device"))
+            .from(IntStream.range(0, 400).mapToObj(i -> Map.of("device", "device-" + (i % 10), "index", i)).toList())
+            .build();
+
+        Publish.Output publishOutput = publish.run(runContext);
+
+        assertThat(publishOutput.getMessagesCount(), is(400));
+    }
+
+    @Test
+    void pooledConnectionShouldBeReusedAcrossRuns() throws Exception {
+        String clientId = IdUtils.create();
+        String topic = "test/" + IdUtils.create();
+
+        for (int i = 0; i < 2; i++) {
+            String expected = i == 0 ? "pool.misses" : "pool.hits";
+            RunContext runContext = runContextFactory.of(ImmutableMap.of());
+
+            Publish.Output publishOutput = Publish.builder()
+                .server(Property.ofValue("tcp://127.0.0.1:1883"))
+                .clientId(Property.ofValue(clientId))
+                .topic(Property.ofValue(topic))
+                .serdeType(Property.ofValue(SerdeType.JSON))
+                .pooled(Property.ofValue(true))
+                .from(Map.of("run", i))
+                .build()
+                .run(runContext);
+
+            assertThat(publishOutput.getMessagesCount(), is(1));
+            assertThat(
+                runContext.metrics().stream().anyMatch(metric -> metric.getName().equals(expected)),
+                is(true)
+            );
+        }
+    }
+
+    @Test
+    void writerFailureShouldFailTheSubscription() throws Exception {
+        String topic = "test/" + IdUtils.create();
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .retain(Property.ofValue(true))
+            .from(Map.of("message", "unwritable"))
+            .build()
+            .run(runContextFactory.of(ImmutableMap.of()));
+
+        // a file in place of the working directory makes the writer thread fail on its first message
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        Path workingDir = runContext.workingDir().path();
+        Files.deleteIfExists(workingDir);
+        Files.writeString(workingDir, "not a directory");
+
+        Subscribe subscribe = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(topic)
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxDuration(Property.ofValue(Duration.ofMinutes(1)))
+            .build();
+
+        try {
+            long start = System.nanoTime();
+            Exception exception = assertThrows(Exception.class, () -> subscribe.run(runContext));
+
+            assertThat(exception.getMessage().startsWith("Failed to write received messages"), is(true));
+            assertThat(Duration.ofNanos(System.nanoTime() - start).toSeconds(), lessThan(30L));
+        } finally {
+            Files.deleteIfExists(workingDir);
+        }
+    }
+
+    @Test
+    void subscribeShouldRefuseMixedSchemaSerdes() {
+        String prefix = "test/" + IdUtils.create();
+        Subscribe subscribe = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(List.of(prefix + "/avro", prefix + "/protobuf"))
+            .serdeType(Property.ofValue(SerdeType.AVRO))
+            .serdeTypes(Property.ofValue(Map.of(prefix + "/protobuf", SerdeType.PROTOBUF)))
+            .maxDuration(Property.ofValue(Duration.ofSeconds(1)))
+            .build();
+
+        assertThrows(IllegalArgumentException.class, () -> subscribe.run(runContextFactory.of(ImmutableMap.of())));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void rowsShouldBeRoutedToTheirOwnTopic() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String prefix = "test/" + IdUtils.create();
+
+        Publish publish = Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(prefix + "/${device.id}"))
+            .qosField(Property.ofValue("qos"))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .retain(Property.ofValue(true))
+            .from(List.of(
+                Map.of("device", Map.of("id", "a"), "qos", 0),
+                Map.of("device", Map.of("id", "b"), "qos", 2)
+            ))
+            .build();
+
+        assertThat(publish.run(runContext).getMessagesCount(), is(2));
+
+        Subscribe.Output subscribeOutput = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(prefix + "/+")
+            .qos(Property.ofValue(2))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxRecords(Property.ofValue(2))
+            .build()
+            .run(runContext);
+
+        List<Map<String, Object>> rows;
+        try (var inputStream = new BufferedInputStream(storageInterface.get(TenantService.MAIN_TENANT, null, subscribeOutput.getUri()), FileSerde.BUFFER_SIZE)) {
+            rows = FileSerde.readAll(inputStream, Map.class).map(m -> (Map<String, Object>) m).collectList().block();
+        }
+
+        Map<Object, Object> qosByTopic = rows.stream().collect(Collectors.toMap(row -> row.get("topic"), row -> row.get("qos")));
+        assertThat(qosByTopic, is(Map.of(prefix + "/a", 0, prefix + "/b", 2)));
+    }
+
+    @Test
+    void subscribeShouldStopExactlyAtMaxRecords() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String prefix = "test/" + IdUtils.create();
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(prefix + "/${index}"))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .retain(Property.ofValue(true))
+            .from(IntStream.range(0, 5).mapToObj(i -> Map.of("index", i)).toList())
+            .build()
+            .run(runContext);
+
+        Subscribe.Output subscribeOutput = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(prefix + "/+")
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxRecords(Property.ofValue(2))
+            .build()
+            .run(runContext);
+
+        assertThat(subscribeOutput.getMessagesCount(), is(2));
+    }
+
+    @Test
+    void subscribeShouldRollOutputIntoChunks() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String prefix = "test/" + IdUtils.create();
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(prefix + "/${index}"))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .retain(Property.ofValue(true))
+            .from(IntStream.range(0, 5).mapToObj(i -> Map.of("index", i)).toList())
+            .build()
+            .run(runContext);
+
+        Subscribe.Output subscribeOutput = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(prefix + "/+")
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxRecords(Property.ofValue(5))
+            .chunkRecords(Property.ofValue(2))
+            .build()
+            .run(runContext);
+
+        assertThat(subscribeOutput.getMessagesCount(), is(5));
+        assertThat(subscribeOutput.getUri(), is(nullValue()));
+        assertThat(subscribeOutput.getUris().size(), is(3));
+    }
+
+    @Test
+    void subscribeShouldWriteRawJsonLines() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String topic = "test/" + IdUtils.create();
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .retain(Property.ofValue(true))
+            .from(Map.of("value", 42))
+            .build()
+            .run(runContext);
+
+        Subscribe.Output subscribeOutput = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(topic)
+            .outputFormat(Property.ofValue(OutputFormat.NDJSON))
+            .maxRecords(Property.ofValue(1))
+            .build()
+            .run(runContext);
+
+        String content = new String(
+            storageInterface.get(TenantService.MAIN_TENANT, null, subscribeOutput.getUri()).readAllBytes(),
+            StandardCharsets.UTF_8
+        );
+
+        assertThat(content, is("{\"topic\":\"" + topic + "\",\"qos\":1,\"retain\":true,\"payload\":{\"value\":42}}\n"));
+    }
+
+    @Test
+    void persistentSessionShouldKeepMessagesBetweenRuns() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String topic = "test/" + IdUtils.create();
+        String clientId = IdUtils.create();
+
+        Subscribe subscribe = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(clientId))
+            .topic(topic)
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .persistentSession(Property.ofValue(true))
+            .sessionExpiry(Property.ofValue(Duration.ofMinutes(1)))
+            .maxDuration(Property.ofValue(Duration.ofSeconds(10)))
+            .maxIdle(Property.ofValue(Duration.ofMillis(500)))
+            .build();
+
+        // creates the session and its subscription
+        assertThat(subscribe.run(runContext).getMessagesCount(), is(0));
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .from(List.of(Map.of("index", 1), Map.of("index", 2)))
+            .build()
+            .run(runContext);
+
+        assertThat(subscribe.run(runContext).getMessagesCount(), is(2));
+    }
+
+    @Test
+    void sharedSubscriptionShouldSplitMessagesAcrossClients() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String topic = "test/" + IdUtils.create();
+        String shareGroup = IdUtils.create();
+
+        List<CompletableFuture<Subscribe.Output>> consumers = IntStream.range(0, 2)
+            .mapToObj(i -> Subscribe.builder()
+                .server(Property.ofValue("tcp://127.0.0.1:1883"))
+                .clientId(Property.ofValue(IdUtils.create()))
+                .topic(topic)
+                .shareGroup(Property.ofValue(shareGroup))
+                .serdeType(Property.ofValue(SerdeType.JSON))
+                .maxDuration(Property.ofValue(Duration.ofSeconds(5)))
+                .build()
+            )
+            .map(subscribe -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return subscribe.run(runContext);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }))
+            .toList();
+
+        // retained messages are not sent to shared subscriptions, so they are published once both are subscribed
+        Thread.sleep(1000);
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .from(IntStream.range(0, 10).mapToObj(i -> Map.of("index", i)).toList())
+            .build()
+            .run(runContext);
+
+        int total = 0;
+        for (CompletableFuture<Subscribe.Output> consumer : consumers) {
+            total += consumer.get().getMessagesCount();
+        }
+
+        assertThat(total, is(10));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void conflationShouldKeepTheLatestMessageOfEachTopic() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String prefix = "test/" + IdUtils.create();
+
+        Subscribe subscribe = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(prefix + "/+")
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .conflate(Property.ofValue(true))
+            .maxRecords(Property.ofValue(10))
+            .maxDuration(Property.ofValue(Duration.ofSeconds(10)))
+            .build();
+
+        CompletableFuture<Subscribe.Output> consumer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscribe.run(runContext);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(1000);
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(prefix + "/${sensor}"))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .from(IntStream.range(0, 10).mapToObj(i -> Map.of("sensor", "s" + i % 2, "reading", i)).toList())
+            .build()
+            .run(runContext);
+
+        Subscribe.Output subscribeOutput = consumer.get();
+
+        assertThat(subscribeOutput.getMessagesCount(), is(2));
+        assertThat(subscribeOutput.getSupersededCount(), is(8));
+
+        List<Map<String, Object>> rows;
+        try (BufferedInputStream inputStream = new BufferedInputStream(storageInterface.get(TenantService.MAIN_TENANT, null, subscribeOutput.getUri()))) {
+            rows = FileSerde.readAll(inputStream, Map.class).map(m -> (Map<String, Object>) m).collectList().block();
+        }
+
+        Map<String, Object> readings = rows.stream()
+            .collect(Collectors.toMap(row -> (String) row.get("topic"), row -> ((Map<String, Object>) row.get("payload")).get("reading")));
+        assertThat(readings, is(Map.of(prefix + "/s0", 8, prefix + "/s1", 9)));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void compressedPayloadsShouldBeDetectedByV5Subscribers() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String topic = "test/" + IdUtils.create();
+
+        Subscribe subscribe = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(topic)
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxRecords(Property.ofValue(3))
+            .maxDuration(Property.ofValue(Duration.ofSeconds(10)))
+            .build();
+
+        CompletableFuture<Subscribe.Output> consumer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscribe.run(runContext);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(1000);
+
+        Publish.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic(Property.ofValue(topic))
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .compression(Property.ofValue(Compression.GZIP))
+            .from(IntStream.range(0, 3).mapToObj(i -> Map.of("reading", i)).toList())
+            .build()
+            .run(runContext);
+
+        Subscribe.Output subscribeOutput = consumer.get();
+
+        assertThat(subscribeOutput.getMessagesCount(), is(3));
+
+        List<Map<String, Object>> rows;
+        try (BufferedInputStream inputStream = new BufferedInputStream(storageInterface.get(TenantService.MAIN_TENANT, null, subscribeOutput.getUri()))) {
+            rows = FileSerde.readAll(inputStream, Map.class).map(m -> (Map<String, Object>) m).collectList().block();
+        }
+
+        assertThat(rows.stream().map(row -> ((Map<String, Object>) row.get("payload")).get("reading")).toList(), is(List.of(0, 1, 2)));
+    }
+
+    @Test
+    void subscribeShouldStopWhenIdle() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        long started = System.nanoTime();
+
+        Subscribe.Output subscribeOutput = Subscribe.builder()
+            .server(Property.ofValue("tcp://127.0.0.1:1883"))
+            .clientId(Property.ofValue(IdUtils.create()))
+            .topic("test/" + IdUtils.create())
+            .serdeType(Property.ofValue(SerdeType.JSON))
+            .maxDuration(Property.ofValue(Duration.ofMinutes(1)))
+            .maxIdle(Property.ofValue(Duration.ofMillis(500)))
+            .build()
+            .run(runContext);
+
+        assertThat(subscribeOutput.getMessagesCount(), is(0));
+        assertThat(Duration.ofNanos(System.nanoTime() - started), lessThan(Duration.ofSeconds(30)));
+    }
+
     @Test
     void v5ShouldRoundTripResponseTopicAndCorrelationData() throws Exception {
         RunContext runContext = runContextFactory.of(ImmutableMap.of());
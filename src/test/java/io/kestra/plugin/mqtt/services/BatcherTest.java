@@ -0,0 +1,62 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class BatcherTest {
+    @Test
+    void shouldEmitFullBatches() {
+        List<List<Integer>> batches = Batcher.batch(Flux.range(0, 10), 4, Duration.ofMinutes(1), false)
+            .collectList()
+            .block(Duration.ofSeconds(10));
+
+        assertThat(batches, is(List.of(List.of(0, 1, 2, 3), List.of(4, 5, 6, 7), List.of(8, 9))));
+    }
+
+    @Test
+    void shouldEmitAPartialBatchOnceTheWaitIsOver() {
+        List<Integer> batch = Batcher.batch(Flux.just(1, 2).concatWith(Flux.never()), 10, Duration.ofMillis(100), true)
+            .blockFirst(Duration.ofSeconds(10));
+
+        assertThat(batch, is(List.of(1, 2)));
+    }
+
+    @Test
+    void shouldNotEmitMoreBatchesThanRequested() throws InterruptedException {
+        List<List<Integer>> received = new CopyOnWriteArrayList<>();
+        BaseSubscriber<List<Integer>> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(2);
+            }
+
+            @Override
+            protected void hookOnNext(List<Integer> value) {
+                received.add(value);
+            }
+        };
+
+        // the first batch is cut short by its wait, so items requested for it spill over a third batch
+        Batcher.batch(Flux.just(0).concatWith(Flux.range(1, 20).delaySubscription(Duration.ofMillis(200))), 4, Duration.ofMillis(50), false)
+            .subscribe(subscriber);
+
+        Thread.sleep(500);
+        assertThat(received, is(List.of(List.of(0), List.of(1, 2, 3, 4))));
+
+        subscriber.request(1);
+        assertThat(received.size(), is(3));
+        assertThat(received.get(2), is(List.of(5, 6, 7)));
+
+        subscriber.dispose();
+    }
+}
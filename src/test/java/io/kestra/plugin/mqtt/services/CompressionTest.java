@@ -0,0 +1,93 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompressionTest {
+    private static byte[] document(int readings) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < readings; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"device\":\"sensor-").append(i % 10).append("\",\"value\":").append(i).append('}');
+        }
+
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void shouldRoundTrip() throws Exception {
+        for (Compression compression : Compression.values()) {
+            // payloads of several sizes, so buffers kept from a previous one have to grow
+            for (int readings : new int[]{1, 1_000, 10}) {
+                byte[] payload = document(readings);
+                byte[] compressed = compression.compress(payload);
+
+                if (compression != Compression.NONE && readings > 10) {
+                    assertThat(compression.name(), compressed.length, lessThan(payload.length));
+                }
+                assertThat(compression.name(), compression.decompress(compressed), is(payload));
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepEmptyPayloads() throws Exception {
+        for (Compression compression : Compression.values()) {
+            assertThat(compression.compress(new byte[0]).length, is(0));
+            assertThat(compression.decompress(new byte[0]).length, is(0));
+        }
+    }
+
+    @Test
+    void shouldReadAndWriteStandardGzip() throws Exception {
+        byte[] payload = document(100);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(payload);
+        }
+        assertThat(Compression.GZIP.decompress(output.toByteArray()), is(payload));
+
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(Compression.GZIP.compress(payload)))) {
+            assertThat(gzip.readAllBytes(), is(payload));
+        }
+    }
+
+    @Test
+    void shouldRejectCorruptPayloads() throws Exception {
+        byte[] compressed = Compression.GZIP.compress(document(100));
+        compressed[compressed.length / 2] ^= 0x5A;
+
+        assertThrows(ZipException.class, () -> Compression.GZIP.decompress(compressed));
+        assertThrows(ZipException.class, () -> Compression.LZ4.decompress(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, 1}));
+    }
+
+    @Test
+    void shouldNotTrustTheClaimedSize() throws Exception {
+        // a valid gzip of a few bytes, its trailer claiming 200MB
+        byte[] gzip = Compression.GZIP.compress("tiny".getBytes(StandardCharsets.UTF_8));
+        gzip[gzip.length - 1] = 0x0C;
+        assertThrows(ZipException.class, () -> Compression.GZIP.decompress(gzip));
+
+        // an LZ4 block of one byte claiming 200MB
+        assertThrows(ZipException.class, () -> Compression.LZ4.decompress(new byte[]{0, 0, 0, 0x0C, 0}));
+    }
+
+    @Test
+    void shouldResolveContentEncodings() throws Exception {
+        assertThat(Compression.of("gzip"), is(Compression.GZIP));
+        assertThat(Compression.of("ZSTD"), is(Compression.ZSTD));
+        assertThat(Compression.of("identity"), is(Compression.NONE));
+        assertThat(Compression.of("br"), is(Compression.NONE));
+    }
+}
@@ -0,0 +1,39 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+class ConsumeLimitsTest {
+    @Test
+    void shouldEnforceMaxRecordsStrictly() throws Exception {
+        ConsumeLimits limits = new ConsumeLimits(2, null, null);
+
+        assertThat(limits.tryAcquire(), is(true));
+        assertThat(limits.tryAcquire(), is(true));
+        assertThat(limits.tryAcquire(), is(false));
+
+        // returns at once, the limit being reached
+        limits.await();
+    }
+
+    @Test
+    void shouldEndOnceIdle() throws Exception {
+        ConsumeLimits limits = new ConsumeLimits(null, Duration.ofMinutes(1), Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        Thread.sleep(100);
+        assertThat(limits.tryAcquire(), is(true));
+        limits.await();
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        // the accepted message moved the idle deadline
+        assertThat(elapsed, greaterThanOrEqualTo(300L));
+        assertThat(elapsed, lessThan(10_000L));
+    }
+}
@@ -0,0 +1,46 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+class CustomSSLSocketFactoryTest {
+    static byte[] certificate(String name) throws IOException {
+        try (InputStream inputStream = CustomSSLSocketFactoryTest.class.getClassLoader().getResourceAsStream("certs/" + name)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @Test
+    void shouldKeyCertificatesByContent() throws Exception {
+        assertThat(CustomSSLSocketFactory.key(certificate("ca-1.crt")), is(CustomSSLSocketFactory.key(certificate("ca-1.crt"))));
+        assertThat(CustomSSLSocketFactory.key(certificate("ca-1.crt")), not(CustomSSLSocketFactory.key(certificate("ca-2.crt"))));
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyUsedFactory() throws Exception {
+        byte[] certificate = certificate("ca-1.crt");
+        String prefix = "eviction-" + System.nanoTime() + "-";
+
+        SSLSocketFactory eldest = CustomSSLSocketFactory.cache(prefix + 0, certificate);
+        assertThat(CustomSSLSocketFactory.cached(prefix + 0), sameInstance(eldest));
+
+        for (int i = 1; i <= 32; i++) {
+            CustomSSLSocketFactory.cache(prefix + i, certificate);
+        }
+
+        assertThat(CustomSSLSocketFactory.cached(prefix + 0), nullValue());
+        assertThat(CustomSSLSocketFactory.cached(prefix + 1), notNullValue());
+        assertThat(CustomSSLSocketFactory.cached(prefix + 32), notNullValue());
+    }
+}
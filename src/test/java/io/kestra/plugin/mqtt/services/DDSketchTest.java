@@ -0,0 +1,48 @@
+package io.kestra.plugin.mqtt.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+class DDSketchTest {
+    @Test
+    void shouldEstimateQuantilesWithinTheRelativeAccuracy() {
+        DDSketch sketch = new DDSketch(0.01);
+        for (int i = 1; i <= 10_000; i++) {
+            sketch.add(i);
+        }
+
+        assertThat(sketch.count(), is(10_000L));
+        assertThat(sketch.quantile(0.5), closeTo(5_000, 5_000 * 0.01));
+        assertThat(sketch.quantile(0.99), closeTo(9_900, 9_900 * 0.01));
+        assertThat(sketch.quantile(1), closeTo(10_000, 10_000 * 0.01));
+    }
+
+    @Test
+    void shouldOrderNegativeValuesZerosAndPositiveValues() {
+        DDSketch sketch = new DDSketch(0.01);
+        for (double value : new double[]{-100, -10, 0, 0, 10, 100}) {
+            sketch.add(value);
+        }
+
+        assertThat(sketch.quantile(0), closeTo(-100, 1));
+        assertThat(sketch.quantile(0.2), closeTo(-10, 0.1));
+        assertThat(sketch.quantile(0.5), is(0.0));
+        assertThat(sketch.quantile(1), closeTo(100, 1));
+    }
+
+    @Test
+    void shouldSkipNonFiniteValues() {
+        DDSketch sketch = new DDSketch(0.01);
+
+        assertThat(sketch.add(Double.POSITIVE_INFINITY), is(false));
+        assertThat(sketch.add(Double.NEGATIVE_INFINITY), is(false));
+        assertThat(sketch.add(Double.NaN), is(false));
+        assertThat(sketch.add(42), is(true));
+
+        assertThat(sketch.count(), is(1L));
+        assertThat(sketch.quantile(0.5), closeTo(42, 42 * 0.01));
+    }
+}
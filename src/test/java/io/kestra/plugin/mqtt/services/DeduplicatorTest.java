@@ -0,0 +1,50 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class DeduplicatorTest {
+    @Test
+    void shouldRecognizeTheSameTopicAndPayload() {
+        Deduplicator deduplicator = new Deduplicator(Duration.ofMinutes(1), 100, null);
+
+        assertThat(deduplicator.isDuplicate("a", bytes("1"), key -> null), is(false));
+        assertThat(deduplicator.isDuplicate("a", bytes("1"), key -> null), is(true));
+        assertThat(deduplicator.isDuplicate("b", bytes("1"), key -> null), is(false));
+        assertThat(deduplicator.isDuplicate("a", bytes("2"), key -> null), is(false));
+
+        assertThat(deduplicator.hits(), is(1L));
+        assertThat(deduplicator.misses(), is(3L));
+    }
+
+    @Test
+    void shouldIdentifyMessagesByUserProperty() {
+        Deduplicator deduplicator = new Deduplicator(Duration.ofMinutes(1), 100, "id");
+
+        assertThat(deduplicator.isDuplicate("a", bytes("same"), Map.of("id", "1")::get), is(false));
+        assertThat(deduplicator.isDuplicate("a", bytes("same"), Map.of("id", "2")::get), is(false));
+        assertThat(deduplicator.isDuplicate("a", bytes("other"), Map.of("id", "1")::get), is(true));
+    }
+
+    @Test
+    void shouldStayBoundedAndForgetTheOldestMessages() {
+        Deduplicator deduplicator = new Deduplicator(Duration.ofMinutes(1), 10, null);
+
+        for (int i = 0; i < 100; i++) {
+            deduplicator.isDuplicate("a", bytes(String.valueOf(i)), key -> null);
+        }
+
+        assertThat(deduplicator.isDuplicate("a", bytes("99"), key -> null), is(true));
+        assertThat(deduplicator.isDuplicate("a", bytes("0"), key -> null), is(false));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedSegmentLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReplayTheLogOnOpen() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 1024)) {
+            log.open();
+            put(log, "s-1", "first");
+            put(log, "s-2", "second");
+            put(log, "s-1", "replaced");
+            log.remove("s-2");
+            put(log, "s-3", "third");
+        }
+
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 1024)) {
+            log.open();
+
+            assertThat(log.keys(), containsInAnyOrder("s-1", "s-3"));
+            assertThat(new String(log.get("s-1").payload(), StandardCharsets.UTF_8), is("replaced"));
+            assertThat(log.get("s-2"), is(nullValue()));
+        }
+    }
+
+    @Test
+    void shouldCompactCompletedMessages() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 256)) {
+            log.open();
+
+            // far more than a segment holds, with only the last few messages in flight
+            for (int i = 0; i < 1000; i++) {
+                put(log, "s-" + i, "message-" + i);
+                if (i >= 4) {
+                    log.remove("s-" + (i - 4));
+                }
+            }
+        }
+
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 256)) {
+            log.open();
+
+            assertThat(log.keys(), containsInAnyOrder("s-996", "s-997", "s-998", "s-999"));
+            assertThat(new String(log.get("s-999").payload(), StandardCharsets.UTF_8), is("message-999"));
+        }
+
+        try (var files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.toString().endsWith(".seg")).count() <= 2, is(true));
+        }
+    }
+
+    @Test
+    void shouldRefuseADirectoryAlreadyOpenInThisProcess() throws Exception {
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 1024)) {
+            log.open();
+
+            MappedSegmentLog other = new MappedSegmentLog(directory, 1024);
+            IOException exception = assertThrows(IOException.class, other::open);
+            assertThat(exception.getMessage().contains("already used by another client"), is(true));
+            other.close();
+
+            // the refused client leaves the lock to the one holding it
+            put(log, "s-1", "first");
+        }
+
+        try (MappedSegmentLog log = new MappedSegmentLog(directory, 1024)) {
+            log.open();
+
+            assertThat(log.keys(), containsInAnyOrder("s-1"));
+        }
+    }
+
+    private static void put(MappedSegmentLog log, String key, String payload) throws Exception {
+        byte[] header = {0x30};
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+
+        log.put(key, header, 0, header.length, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,119 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageBufferTest {
+    private static Message message(int id) {
+        return Message.builder().id(id).topic("test").qos(1).build();
+    }
+
+    private static List<Integer> drain(MessageBuffer buffer, int max) throws InterruptedException {
+        Message[] batch = new Message[max];
+        int drained = buffer.drain(batch, new long[max], 1, TimeUnit.SECONDS);
+
+        return Arrays.stream(batch, 0, Math.max(drained, 0)).map(Message::getId).toList();
+    }
+
+    @Test
+    void shouldDrainInOrderAcrossTheWrapAround() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(3);
+
+        buffer.put(message(1));
+        buffer.put(message(2));
+        assertThat(drain(buffer, 2), is(List.of(1, 2)));
+
+        // written from the last slot on, wrapping around to the first ones
+        buffer.put(message(3));
+        buffer.put(message(4));
+        buffer.put(message(5));
+        assertThat(buffer.size(), is(3));
+
+        assertThat(drain(buffer, 2), is(List.of(3, 4)));
+        assertThat(drain(buffer, 10), is(List.of(5)));
+        assertThat(buffer.size(), is(0));
+    }
+
+    @Test
+    void shouldBlockPutWhileFull() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(2);
+        buffer.put(message(1));
+        buffer.put(message(2));
+
+        CompletableFuture<Boolean> put = new CompletableFuture<>();
+        Thread producer = Thread.ofVirtual().start(() -> {
+            try {
+                put.complete(buffer.put(message(3)));
+            } catch (InterruptedException e) {
+                put.completeExceptionally(e);
+            }
+        });
+        producer.join(Duration.ofMillis(200));
+        assertThat(put.isDone(), is(false));
+
+        assertThat(drain(buffer, 1), is(List.of(1)));
+        assertThat(put.get(5, TimeUnit.SECONDS), is(true));
+        assertThat(drain(buffer, 10), is(List.of(2, 3)));
+    }
+
+    @Test
+    void shouldTrackThePeak() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(4);
+
+        buffer.put(message(1));
+        buffer.put(message(2));
+        buffer.put(message(3));
+        drain(buffer, 10);
+        buffer.put(message(4));
+
+        assertThat(buffer.peak(), is(3));
+    }
+
+    @Test
+    void shouldTimeOutOnAnEmptyBuffer() throws Exception {
+        assertThat(new MessageBuffer(1).drain(new Message[1], new long[1], 10, TimeUnit.MILLISECONDS), is(0));
+        assertThrows(IllegalArgumentException.class, () -> new MessageBuffer(0));
+    }
+
+    @Test
+    void closeShouldWakeUpWaitingThreads() throws Exception {
+        MessageBuffer full = new MessageBuffer(1);
+        full.put(message(1));
+
+        CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> {
+            try {
+                return full.put(message(2));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        MessageBuffer empty = new MessageBuffer(1);
+        CompletableFuture<Integer> drain = CompletableFuture.supplyAsync(() -> {
+            try {
+                return empty.drain(new Message[1], new long[1], 1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        full.close();
+        empty.close();
+
+        // the message put after closing is dropped, the one buffered before is still drained
+        assertThat(put.get(5, TimeUnit.SECONDS), is(false));
+        assertThat(drain.get(5, TimeUnit.SECONDS), is(-1));
+        assertThat(drain(full, 10), is(List.of(1)));
+        assertThat(full.drain(new Message[1], new long[1], 1, TimeUnit.SECONDS), is(-1));
+    }
+}
@@ -0,0 +1,52 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageFilterTest {
+    @Test
+    void shouldCompareTheValueAtTheJsonPointer() {
+        MessageFilter filter = MessageFilter.of(null, null, "/device/status", "ERROR");
+
+        assertThat(accepts(filter, "{\"readings\":[1,2,{\"status\":\"ERROR\"}],\"device\":{\"id\":1,\"status\":\"ERROR\"}}"), is(true));
+        assertThat(accepts(filter, "{\"device\":{\"status\":\"OK\"}}"), is(false));
+        assertThat(accepts(filter, "{\"device\":{\"status\":{\"code\":\"ERROR\"}}}"), is(false));
+        assertThat(accepts(filter, "{\"device\":{}}"), is(false));
+        assertThat(accepts(filter, "not json"), is(false));
+    }
+
+    @Test
+    void shouldResolveArrayIndexesAndScalars() {
+        assertThat(accepts(MessageFilter.of(null, null, "/readings/1", "42"), "{\"readings\":[{\"a\":1},42]}"), is(true));
+        assertThat(accepts(MessageFilter.of(null, null, "/enabled", "true"), "{\"enabled\":true}"), is(true));
+        assertThat(accepts(MessageFilter.of(null, null, "/enabled", null), "{\"enabled\":null}"), is(false));
+        assertThat(accepts(MessageFilter.of(null, null, "/enabled", null), "{\"enabled\":false}"), is(true));
+    }
+
+    @Test
+    void shouldMatchTopicAndUserProperties() {
+        MessageFilter filter = MessageFilter.of("sensors/.+/alerts", Map.of("source", "edge"), null, null);
+        byte[] payload = new byte[0];
+
+        assertThat(filter.accepts("sensors/s1/alerts", payload, Map.of("source", "edge")::get), is(true));
+        assertThat(filter.accepts("sensors/s1/alerts", payload, key -> null), is(false));
+        assertThat(filter.accepts("sensors/s1/telemetry", payload, Map.of("source", "edge")::get), is(false));
+    }
+
+    @Test
+    void shouldOnlyBeCreatedWithConditions() {
+        assertThat(MessageFilter.of(null, Map.of(), null, null), nullValue());
+        assertThrows(IllegalArgumentException.class, () -> MessageFilter.of(null, null, null, "ERROR"));
+    }
+
+    private static boolean accepts(MessageFilter filter, String payload) {
+        return filter.accepts("topic", payload.getBytes(StandardCharsets.UTF_8), key -> null);
+    }
+}
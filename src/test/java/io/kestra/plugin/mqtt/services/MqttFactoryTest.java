@@ -0,0 +1,74 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.kestra.core.junit.annotations.KestraTest;
+import io.kestra.core.models.property.Property;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+import io.kestra.plugin.mqtt.Publish;
+
+import jakarta.inject.Inject;
+
+import static io.kestra.plugin.mqtt.services.CustomSSLSocketFactoryTest.certificate;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+@KestraTest
+class MqttFactoryTest {
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    private static Publish connection(String crt) {
+        return Publish.builder()
+            .server(Property.ofValue("ssl://127.0.0.1:8883"))
+            .topic(Property.ofValue("test/tls"))
+            .crt(Property.ofValue(crt))
+            .build();
+    }
+
+    @Test
+    void shouldShareFactoriesOfIdenticalCertificates() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        String first = new String(certificate("ca-1.crt"), StandardCharsets.UTF_8);
+        String second = new String(certificate("ca-2.crt"), StandardCharsets.UTF_8);
+
+        MqttFactory.ResolvedSSLSocketFactory resolved = MqttFactory.resolveSSLSocketFactory(runContext, connection(first));
+        MqttFactory.ResolvedSSLSocketFactory again = MqttFactory.resolveSSLSocketFactory(runContext, connection(first));
+        MqttFactory.ResolvedSSLSocketFactory other = MqttFactory.resolveSSLSocketFactory(runContext, connection(second));
+
+        assertThat(again.sslSocketFactory(), sameInstance(resolved.sslSocketFactory()));
+        assertThat(again.cached(), is(true));
+        assertThat(other.sslSocketFactory(), not(sameInstance(resolved.sslSocketFactory())));
+    }
+
+    @Test
+    void shouldReadStorageCertificatesOnEveryResolve() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+
+        File file = runContext.workingDir().createTempFile(".crt").toFile();
+        Files.write(file.toPath(), certificate("ca-1.crt"));
+        URI uri = runContext.storage().putFile(file, "ca.crt");
+        MqttFactory.ResolvedSSLSocketFactory resolved = MqttFactory.resolveSSLSocketFactory(runContext, connection(uri.toString()));
+
+        // a rotated certificate behind the same URI must be trusted on the next resolve
+        Files.write(file.toPath(), certificate("ca-2.crt"));
+        assertThat(runContext.storage().putFile(file, "ca.crt"), is(uri));
+        MqttFactory.ResolvedSSLSocketFactory rotated = MqttFactory.resolveSSLSocketFactory(runContext, connection(uri.toString()));
+
+        assertThat(rotated.sslSocketFactory(), not(sameInstance(resolved.sslSocketFactory())));
+        assertThat(
+            rotated.sslSocketFactory(),
+            sameInstance(CustomSSLSocketFactory.cached(CustomSSLSocketFactory.key(certificate("ca-2.crt"))))
+        );
+    }
+}
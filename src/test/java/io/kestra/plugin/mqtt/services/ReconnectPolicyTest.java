@@ -0,0 +1,42 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class ReconnectPolicyTest {
+    @Test
+    void shouldBoundTheJitteredDelayByTheMaxDelay() {
+        ReconnectPolicy policy = ReconnectPolicy.builder()
+            .initialDelay(Duration.ofSeconds(1))
+            .maxDelay(Duration.ofSeconds(10))
+            .build();
+
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long exponential = Math.min(10_000, 1000L << Math.min(attempt, 30));
+
+            // drawn again on every attempt, so the bounds are checked against many draws
+            for (int draw = 0; draw < 20; draw++) {
+                long delay = policy.delay(attempt).toMillis();
+
+                assertThat(delay, greaterThanOrEqualTo(exponential / 2));
+                assertThat(delay, lessThanOrEqualTo(exponential));
+            }
+        }
+    }
+
+    @Test
+    void shouldCapTheAttempts() {
+        ReconnectPolicy capped = ReconnectPolicy.builder().maxAttempts(3).build();
+
+        assertThat(capped.isExhausted(0), is(false));
+        assertThat(capped.isExhausted(2), is(false));
+        assertThat(capped.isExhausted(3), is(true));
+        assertThat(ReconnectPolicy.builder().build().isExhausted(Integer.MAX_VALUE), is(false));
+    }
+}
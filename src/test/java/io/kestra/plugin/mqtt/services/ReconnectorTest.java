@@ -0,0 +1,79 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.kestra.core.junit.annotations.KestraTest;
+import io.kestra.core.runners.RunContext;
+import io.kestra.core.runners.RunContextFactory;
+
+import jakarta.inject.Inject;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@KestraTest
+class ReconnectorTest {
+    private static final ReconnectPolicy POLICY = ReconnectPolicy.builder()
+        .initialDelay(Duration.ofMillis(1))
+        .maxDelay(Duration.ofMillis(5))
+        .maxAttempts(3)
+        .build();
+
+    @Inject
+    private RunContextFactory runContextFactory;
+
+    @Test
+    void shouldGiveUpAfterTheMaxAttempts() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Throwable> gaveUp = new CompletableFuture<>();
+
+        new Reconnector(runContext, POLICY).start(
+            new Exception("lost"),
+            () -> {
+                throw new Exception("refused " + attempts.incrementAndGet());
+            },
+            gaveUp::complete
+        );
+
+        assertThat(gaveUp.get(10, TimeUnit.SECONDS).getMessage(), is("refused 3"));
+        assertThat(attempts.get(), is(3));
+        assertThat(runContext.metrics().stream().anyMatch(metric -> metric.getName().equals("reconnects")), is(false));
+    }
+
+    @Test
+    void shouldReportTheReconnection() throws Exception {
+        RunContext runContext = runContextFactory.of(ImmutableMap.of());
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> reconnected = new CompletableFuture<>();
+
+        new Reconnector(runContext, POLICY).start(
+            new Exception("lost"),
+            () -> {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new Exception("refused");
+                }
+                reconnected.complete(null);
+            },
+            throwable -> reconnected.completeExceptionally(new AssertionError("Gave up reconnecting", throwable))
+        );
+
+        reconnected.get(10, TimeUnit.SECONDS);
+
+        // the metrics are reported right after the attempt succeeded
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (runContext.metrics().stream().noneMatch(metric -> metric.getName().equals("downtime")) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(runContext.metrics().stream().anyMatch(metric -> metric.getName().equals("reconnects")), is(true));
+        assertThat(runContext.metrics().stream().anyMatch(metric -> metric.getName().equals("downtime")), is(true));
+    }
+}
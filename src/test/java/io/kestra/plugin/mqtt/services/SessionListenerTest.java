@@ -0,0 +1,41 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class SessionListenerTest {
+    @Test
+    void shouldKeepMessagesUntilAListenerIsSet() throws Exception {
+        SessionListener<String> sessionListener = new SessionListener<>();
+        List<String> received = new ArrayList<>();
+
+        sessionListener.messageArrived("a", "1");
+        sessionListener.messageArrived("a", "2");
+        sessionListener.set((topic, message) -> received.add(topic + message));
+        sessionListener.messageArrived("b", "3");
+
+        assertThat(received, is(List.of("a1", "a2", "b3")));
+    }
+
+    @Test
+    void shouldHandMessagesToTheCurrentListenerOnly() throws Exception {
+        SessionListener<String> sessionListener = new SessionListener<>();
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+
+        sessionListener.set((topic, message) -> first.add(message));
+        sessionListener.messageArrived("a", "1");
+        sessionListener.clear();
+        sessionListener.messageArrived("a", "2");
+        sessionListener.set((topic, message) -> second.add(message));
+        sessionListener.messageArrived("a", "3");
+
+        assertThat(first, is(List.of("1")));
+        assertThat(second, is(List.of("2", "3")));
+    }
+}
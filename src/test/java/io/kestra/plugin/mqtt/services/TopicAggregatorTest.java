@@ -0,0 +1,47 @@
+package io.kestra.plugin.mqtt.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+class TopicAggregatorTest {
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldAggregateTheFieldPerTopic() {
+        TopicAggregator aggregator = new TopicAggregator("/reading/value", null, List.of(0.5, 0.999));
+
+        for (int i = 1; i <= 100; i++) {
+            aggregator.add("sensors/a", bytes("{\"id\":\"a\",\"reading\":{\"unit\":\"C\",\"value\":" + i + "}}"));
+        }
+        aggregator.add("sensors/b", bytes("{\"reading\":{\"value\":-2.5}}"));
+        aggregator.add("sensors/b", bytes("{\"reading\":{\"value\":\"n/a\"}}"));
+        aggregator.add("sensors/b", bytes("not json"));
+        aggregator.add("sensors/b", bytes("{\"reading\":{\"value\":1e309}}"));
+
+        List<Map<String, Object>> rows = aggregator.rows();
+
+        assertThat(rows.size(), is(2));
+        assertThat(aggregator.skipped(), is(3L));
+
+        Map<String, Object> a = rows.getFirst();
+        assertThat(a.get("topic"), is("sensors/a"));
+        assertThat(a.get("count"), is(100L));
+        assertThat(a.get("min"), is(1.0));
+        assertThat(a.get("max"), is(100.0));
+        assertThat(a.get("avg"), is(50.5));
+        assertThat((Double) ((Map<String, Object>) a.get("percentiles")).get("p50"), closeTo(50, 1));
+        assertThat((Double) ((Map<String, Object>) a.get("percentiles")).get("p99.9"), closeTo(99, 1));
+
+        assertThat(rows.get(1).get("sum"), is(-2.5));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
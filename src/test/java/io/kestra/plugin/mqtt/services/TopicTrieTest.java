@@ -0,0 +1,36 @@
+package io.kestra.plugin.mqtt.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class TopicTrieTest {
+    @Test
+    void shouldResolveTheMostSpecificFilter() {
+        TopicTrie<SerdeType> trie = new TopicTrie<>();
+        trie.put("#", SerdeType.JSON);
+        trie.put("devices/+/firmware/#", SerdeType.BYTES);
+        trie.put("devices/+/status", SerdeType.STRING);
+        trie.put("devices/gateway/status", SerdeType.JSON);
+
+        assertThat(trie.match("devices/sensor-1/firmware/chunk/3"), is(SerdeType.BYTES));
+        assertThat(trie.match("devices/sensor-1/firmware"), is(SerdeType.BYTES));
+        assertThat(trie.match("devices/sensor-1/status"), is(SerdeType.STRING));
+        assertThat(trie.match("devices/gateway/status"), is(SerdeType.JSON));
+        assertThat(trie.match("devices/sensor-1/telemetry"), is(SerdeType.JSON));
+    }
+
+    @Test
+    void wildcardsShouldNotMatchSystemTopics() {
+        TopicTrie<SerdeType> trie = new TopicTrie<>();
+        trie.put("#", SerdeType.JSON);
+        trie.put("+/uptime", SerdeType.JSON);
+        trie.put("$SYS/broker/uptime", SerdeType.STRING);
+
+        assertThat(trie.match("$SYS/broker/uptime"), is(SerdeType.STRING));
+        assertThat(trie.match("$SYS/broker/load"), nullValue());
+        assertThat(trie.match("$SYS/uptime"), nullValue());
+    }
+}
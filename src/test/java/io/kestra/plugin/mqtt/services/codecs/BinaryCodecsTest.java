@@ -0,0 +1,110 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryCodecsTest {
+    private static final String AVRO_SCHEMA = """
+        {"type": "record", "name": "Reading", "fields": [
+          {"name": "device", "type": "string"},
+          {"name": "value", "type": "double"},
+          {"name": "unit", "type": ["null", "string"], "default": null},
+          {"name": "tags", "type": {"type": "array", "items": "string"}},
+          {"name": "labels", "type": {"type": "map", "values": "long"}}
+        ]}""";
+
+    private static Map<String, Object> reading() {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("device", "sensor-42");
+        value.put("value", 21.5);
+        value.put("unit", null);
+        value.put("tags", List.of("indoor", "floor-2"));
+        value.put("labels", Map.of("rack", 7L));
+        return value;
+    }
+
+    @Test
+    void shouldRoundTripCborAndMessagePack() throws Exception {
+        byte[] json = PayloadCodecs.create("JSON", null, Map.of()).encode(reading());
+
+        for (String name : List.of("CBOR", "MESSAGEPACK")) {
+            PayloadCodec codec = PayloadCodecs.create(name, null, Map.of());
+            byte[] payload = codec.encode(reading());
+
+            assertThat(name, payload.length, lessThan(json.length));
+            assertThat(name, codec.decode(payload), is(PayloadCodecs.create("JSON", null, Map.of()).decode(json)));
+        }
+    }
+
+    @Test
+    void shouldRoundTripAvro() throws Exception {
+        PayloadCodec codec = PayloadCodecs.create("AVRO", null, Map.of("schema", AVRO_SCHEMA));
+
+        assertThat(codec.decode(codec.encode(reading())), is(reading()));
+
+        Map<String, Object> withUnit = reading();
+        withUnit.put("unit", "celsius");
+        assertThat(codec.decode(codec.encode(withUnit)), is(withUnit));
+    }
+
+    @Test
+    void shouldRequireASchema() {
+        assertThrows(IllegalArgumentException.class, () -> PayloadCodecs.create("AVRO", null, Map.of()));
+    }
+
+    @Test
+    void shouldRoundTripProtobuf() throws Exception {
+        DescriptorProtos.FileDescriptorSet descriptorSet = DescriptorProtos.FileDescriptorSet.newBuilder()
+            .addFile(DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("reading.proto")
+                .setPackage("telemetry")
+                .setSyntax("proto3")
+                .addEnumType(DescriptorProtos.EnumDescriptorProto.newBuilder()
+                    .setName("Unit")
+                    .addValue(DescriptorProtos.EnumValueDescriptorProto.newBuilder().setName("UNKNOWN").setNumber(0))
+                    .addValue(DescriptorProtos.EnumValueDescriptorProto.newBuilder().setName("CELSIUS").setNumber(1))
+                )
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+                    .setName("Reading")
+                    .addField(field("device", 1, FieldDescriptorProto.Type.TYPE_STRING, FieldDescriptorProto.Label.LABEL_OPTIONAL))
+                    .addField(field("value", 2, FieldDescriptorProto.Type.TYPE_DOUBLE, FieldDescriptorProto.Label.LABEL_OPTIONAL))
+                    .addField(field("unit", 3, FieldDescriptorProto.Type.TYPE_ENUM, FieldDescriptorProto.Label.LABEL_OPTIONAL).setTypeName(".telemetry.Unit"))
+                    .addField(field("tags", 4, FieldDescriptorProto.Type.TYPE_STRING, FieldDescriptorProto.Label.LABEL_REPEATED))
+                )
+            )
+            .build();
+
+        PayloadCodec codec = new ProtobufCodec(ProtobufCodec.descriptor(descriptorSet.toByteArray(), "telemetry.Reading"));
+        Map<String, Object> value = Map.of(
+            "device", "sensor-42",
+            "value", 21.5,
+            "unit", "CELSIUS",
+            "tags", List.of("indoor", "floor-2")
+        );
+
+        assertThat(codec.decode(codec.encode(value)), is(value));
+
+        // proto3 doesn't write default values, they are decoded anyway
+        assertThat(
+            codec.decode(codec.encode(Map.of("device", "sensor-0", "value", 0.0))),
+            is(Map.of("device", "sensor-0", "value", 0.0, "unit", "UNKNOWN", "tags", List.of()))
+        );
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(Map.of("missing", 1)));
+        assertThrows(IllegalArgumentException.class, () -> ProtobufCodec.descriptor(descriptorSet.toByteArray(), "telemetry.Missing"));
+    }
+
+    private static FieldDescriptorProto.Builder field(String name, int number, FieldDescriptorProto.Type type, FieldDescriptorProto.Label label) {
+        return FieldDescriptorProto.newBuilder().setName(name).setNumber(number).setType(type).setLabel(label);
+    }
+}
@@ -0,0 +1,39 @@
+package io.kestra.plugin.mqtt.services.codecs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PayloadCodecsTest {
+    @Test
+    void shouldRoundTripJson() throws Exception {
+        PayloadCodec codec = PayloadCodecs.create("json", null, Map.of());
+        Map<String, Object> value = Map.of("id", 1, "tags", List.of("a", "b"));
+
+        byte[] payload = codec.encode(value);
+
+        assertThat(codec.decode(payload), is(value));
+        assertThat(codec.decode(ByteBuffer.wrap(("[" + new String(payload, StandardCharsets.UTF_8) + "]").getBytes(StandardCharsets.UTF_8), 1, payload.length)), is(value));
+    }
+
+    @Test
+    void shouldUseTheConfiguredCharset() throws Exception {
+        PayloadCodec codec = PayloadCodecs.create("STRING", null, Map.of("charset", "ISO-8859-1"));
+
+        assertThat(codec.encode("é"), is(new byte[]{(byte) 0xE9}));
+        assertThat(codec.decode(new byte[]{(byte) 0xE9}), is("é"));
+        assertThat(PayloadCodecs.create("STRING", null, Map.of()).decode("é".getBytes(StandardCharsets.UTF_8)), is("é"));
+    }
+
+    @Test
+    void shouldRejectUnknownCodecs() {
+        assertThrows(IllegalArgumentException.class, () -> PayloadCodecs.create("unknown", null, Map.of()));
+    }
+}